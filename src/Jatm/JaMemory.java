@@ -0,0 +1,93 @@
+/*
+ * JaMemory - A tape file placed in the Jupiter Ace address space
+ *
+ * This file is part of JAtm - The Jupiter Ace tape manager.
+ *
+ * JAtm is a tool to manage Jupiter Ace tape files in several formats.
+ * Copyright (C) 2015  Ricardo Fernandes Lopes
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package Jatm;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Read only memory image of a tape file data at its load ADDRESS.
+ * Boundaries are computed once, so reads are plain array indexing.
+ * Reads give the same results as JaTape getMemByte and getMemWord
+ * at the time the image was taken.
+ * @author Ricardo F. Lopes
+ */
+public class JaMemory {
+    private final byte[] mem;     // data block after the block type byte
+    private final int base;       // file base address
+    private final int limit;      // end of file address, from LENGTH header
+    private final int byteLimit;  // end of readable bytes
+    private final int wordLimit;  // end of readable words
+
+    /**
+     * Constructor: Memory image of a tape file
+     * @param tape Jupiter Ace tape file
+     * @param baseAddress file base address
+     */
+    JaMemory(JaTape tape, int baseAddress) {
+        ByteBuffer block = tape.getDataBlockView();
+        int length = (block.remaining() > 0) ? block.remaining() - 1 : 0;
+        mem = new byte[length];
+        if(length > 0) {
+            block.position(1); // skip block type byte
+            block.get(mem);
+        }
+
+        base = baseAddress;
+        limit = base + tape.getParameter(JaTape.LENGTH);
+        byteLimit = Math.min(limit, base + mem.length);
+        wordLimit = Math.min(limit, base + mem.length - 1);
+    }
+
+    /**
+     * Check for a valid file address
+     * @param address Address to be checked
+     * @return false if address outside file boundaries
+     */
+    public boolean validAddress(int address) {
+        return address >= base && address < limit;
+    }
+
+    /**
+     * Get byte from memory address. Returns Zero if invalid address
+     * @param address byte location
+     * @return byte at address
+     */
+    public byte getByte(int address) {
+        if(address >= base && address < byteLimit) {
+            return mem[address - base];
+        }
+        return 0;
+    }
+
+    /**
+     * Get two byte value at address. Returns Zero if invalid address
+     * @param address bytes location: lo-byte high-byte order
+     * @return value at address (0-FFFF)
+     */
+    public int getWord(int address) {
+        if(address >= base && address < wordLimit) {
+            int i = address - base;
+            return ((mem[i+1] & 0xFF) << 8) | (mem[i] & 0xFF);
+        }
+        return 0;
+    }
+}
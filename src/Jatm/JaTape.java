@@ -22,6 +22,8 @@
 
 package Jatm;
 
+import java.nio.ByteBuffer;
+
 /**
  * Implements a Jupiter Ace Tape File structure
  * @author Ricardo F. Lopes
@@ -67,11 +69,14 @@ public class JaTape {
     }
 
     /**
-     * Copy Constructor
+     * Copy Constructor: the copy shares the tape blocks until either
+     * tape is modified, then the modified block is copied
      * @param tape
      */
-     public JaTape(JaTape tape) {
-        this(tape.getHeaderBlock(), tape.getDataBlock());
+    public JaTape(JaTape tape) {
+        header = new JaTapeBlock(tape.header);
+        data = new JaTapeBlock(tape.data);
+        baseAddress = tape.baseAddress;
     }
 
     /**
@@ -90,6 +95,25 @@ public class JaTape {
         baseAddress = getParameter(JaTape.ADDRESS); // file base address
     }
 
+    /**
+     * Constructor: Tape File sharing header and data blocks buffers.
+     * Buffers remaining bytes are used in place, no copy is made
+     * @param hdr header block buffer
+     * @param dat data block buffer
+     */
+    public JaTape(ByteBuffer hdr, ByteBuffer dat) {
+        if(hdr.remaining() == HEADER_LENGTH) {
+            header = new JaTapeBlock(hdr);
+        } else { // Make shure Header block is of correct size
+            byte[] buf = new byte[HEADER_LENGTH];
+            ByteBuffer src = hdr.duplicate();
+            src.get(buf, 0, Math.min(buf.length, src.remaining()));
+            header = new JaTapeBlock(buf);
+        }
+        data = new JaTapeBlock(dat);
+        baseAddress = getParameter(JaTape.ADDRESS); // file base address
+    }
+
     /**
      * Set a whole data block array, including block type and CRC bytes
      * @param block data block
@@ -101,20 +125,46 @@ public class JaTape {
 
     /**
      * Get the whole data block array, including block type and CRC bytes
-     * @return data block
+     * @return copy of data block
      */
     public byte[] getDataBlock() {
         return data.get();
     }
 
+    /**
+     * Get a read only view of the whole data block, including block type
+     * and CRC bytes. No copy is made
+     * @return data block view
+     */
+    public ByteBuffer getDataBlockView() {
+        return data.view();
+    }
+
     /**
      * Get the core data from data block array, excluding block type and CRC bytes
-     * @return core data block
+     * @return copy of core data block
      */
     public byte[] getData() {
         return data.getPart(1,data.length()-2);
     }
 
+    /**
+     * Get a read only view of the core data, excluding block type and CRC bytes.
+     * No copy is made
+     * @return core data block view
+     */
+    public ByteBuffer getDataView() {
+        return data.view(1,data.length()-2);
+    }
+
+    /**
+     * Get the core data size, excluding block type and CRC bytes
+     * @return core data size in bytes
+     */
+    public int getDataLength() {
+        return data.length()-2;
+    }
+
     /**
      * Set byte value to a Data block position
      * @param index position in Data block array (excluding block type byte)
@@ -167,12 +217,20 @@ public class JaTape {
 
     /**
      * Get the Header block as a byte array
-     * @return header block array
+     * @return copy of header block
      */
     public byte[] getHeaderBlock() {
         return header.get();
     }
 
+    /**
+     * Get a read only view of the Header block. No copy is made
+     * @return header block view
+     */
+    public ByteBuffer getHeaderView() {
+        return header.view();
+    }
+
     /**
      * Set Header Parameters to a canonical Byt file type
      */
@@ -376,4 +434,32 @@ public class JaTape {
         }
         return 0;
     }
+
+    /**
+     * Get tape contents version, changed by every header or data block write.
+     * Allows caching values computed from the tape
+     * @return version stamp
+     */
+    public long getVersion() {
+        return ((long)header.getVersion() << 32) + data.getVersion();
+    }
+
+    /**
+     * Check if two tape files have the same header and data contents
+     * @param tape tape file to compare to
+     * @return true if all bytes are equal
+     */
+    public boolean sameContents(JaTape tape) {
+        return header.view().equals(tape.header.view())
+                && data.view().equals(tape.data.view());
+    }
+
+    /**
+     * Get a memory image of the file data, for fast repeated reads.
+     * The image does not follow later changes to the file.
+     * @return file data placed at its base address
+     */
+    public JaMemory getMemoryImage() {
+        return new JaMemory(this, baseAddress);
+    }
 }
@@ -21,6 +21,8 @@
  */
 package Jatm;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 
 /**
@@ -38,22 +40,56 @@ public class JaTapeBlock {
     /** Data Block Type Tag   */   
     public static final byte DATA_BLOCK   = (byte) 0xFF;
     
-    private byte[] block; // the block contents
+    private ByteBuffer block; // the block contents, little endian
+    private byte xor;         // running CRC of the block contents
+    private boolean xorValid; // running CRC is up to date
+    private int version;      // count of changes to the block contents
 
     /**
      * Cosntructor
      * @param data Byte array to initialize the Block contents 
      */
     public JaTapeBlock(byte[] data) {  
-        this.block = data;
+        set(data);
     }   
+
+    /**
+     * Constructor: Block backed by a shared buffer, heap, direct or mapped.
+     * The block covers the buffer remaining bytes and shares them.
+     * A read only buffer is copied on the first write.
+     * @param data buffer to back the Block contents
+     */
+    public JaTapeBlock(ByteBuffer data) {
+        set(data);
+    }
+
+    /**
+     * Copy Constructor: both Blocks share the same contents until one
+     * of them is written, then the written Block takes its own copy
+     * @param other Block to be copied
+     */
+    public JaTapeBlock(JaTapeBlock other) {
+        other.share();
+        block = other.block.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        xor = other.xor;
+        xorValid = other.xorValid;
+    }
  
+    /**
+     * Get Block contents version, changed by every Block write.
+     * Allows caching values computed from the Block
+     * @return version stamp
+     */
+    public int getVersion() {
+        return version;
+    }
+
     /**
      * Get Block Size, including Block type and CRC bytes
      * @return block size in bytes
      */
     public int length() {
-        return this.block.length;
+        return this.block.limit();
     }
     
     /**
@@ -62,7 +98,25 @@ public class JaTapeBlock {
      * @return True if index is under Block size
      */
     private Boolean validIndex(int index) {
-        return (index >= 0 && index < block.length);
+        return (index >= 0 && index < block.limit());
+    }
+
+    /**
+     * Make Block contents writable, copying a read only or shared buffer
+     */
+    private void ensureWritable() {
+        if(block.isReadOnly()) { // same contents: running CRC still valid
+            block = ByteBuffer.wrap(getPart(0, block.limit())).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /**
+     * Turn Block contents read only so they can be shared safely
+     */
+    private void share() {
+        if(!block.isReadOnly()) {
+            block = block.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+        }
     }
 
     /**
@@ -70,15 +124,53 @@ public class JaTapeBlock {
      * @param data byte array to became the Block contents
      */
     public void set(byte[] data) {
-        this.block = data;
+        this.block = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        xorValid = false; // CRC calculated on demand
+        version++;
+    }
+
+    /**
+     * Set the entire Block contents from a shared buffer
+     * @param data buffer remaining bytes to became the Block contents
+     */
+    public void set(ByteBuffer data) {
+        this.block = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+        xorValid = false; // CRC calculated on demand
+        version++;
     }
 
     /**
-     * Get the entire Block contents as a byte array
+     * Get a copy of the entire Block contents.
+     * Use view() to read the contents without copying
      * @return byte array with whole Block contents
      */
     public byte[] get() {
-        return this.block;
+        return getPart(0, block.limit());
+    }
+
+    /**
+     * Get a read only view of the entire Block contents, no copy is made
+     * @return little endian read only buffer
+     */
+    public ByteBuffer view() {
+        return block.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Get a read only view of part of the Block contents, no copy is made
+     * @param index start of the view
+     * @param length size of the view, trimmed to the Block end
+     * @return little endian read only buffer
+     */
+    public ByteBuffer view(int index, int length) {
+        int len = length;
+        if( index + len > block.limit() ) {
+            len = block.limit() - index;
+        }
+        ByteBuffer v = block.asReadOnlyBuffer();
+        v.position(index);
+        v.limit(index + len);
+        return v.slice().order(ByteOrder.LITTLE_ENDIAN);
     }
 
     /**
@@ -87,8 +179,13 @@ public class JaTapeBlock {
      * @param data byte to be writen
      */
     public void setByte(int index, byte data) {
-        if(validIndex(index)) {
-            block[index] = data;
+        if(validIndex(index) && block.get(index) != data) { // copy only on change
+            ensureWritable();
+            if(xorValid && inCrc(index)) {
+                xor ^= block.get(index) ^ data; // XOR out old byte, XOR in new
+            }
+            block.put(index, data);
+            version++;
         }
     }    
 
@@ -100,7 +197,7 @@ public class JaTapeBlock {
     public byte getByte(int index) {
         byte dat = 0;
         if(validIndex(index)) {
-            dat = block[index];
+            dat = block.get(index);
         }
         return dat;
     }
@@ -121,10 +218,10 @@ public class JaTapeBlock {
      * @return 2 byte value integer
      */
     public int getWord(int index) {
-        if(index < 0 || index > block.length-2) { // check index range
+        if(index < 0 || index > block.limit()-2) { // check index range
         return 0; // return zero if invalid range
         } else {
-            return ((block[index+1] & 0xFF) << 8) | (block[index] & 0xFF);
+            return block.getShort(index) & 0xFFFF;
         }
     }
 
@@ -135,10 +232,21 @@ public class JaTapeBlock {
      */
     public void setPart(int index, byte[] data) {
         int len = data.length;
-        if( index + len > block.length ) {
-            len = block.length - index;
+        if( index + len > block.limit() ) {
+            len = block.limit() - index;
+        }
+        ensureWritable();
+        if(xorValid) {
+            for(int i = 0; i < len; i++) { // XOR out old bytes, XOR in new
+                if(inCrc(index + i)) {
+                    xor ^= block.get(index + i) ^ data[i];
+                }
+            }
         }
-        System.arraycopy(data, 0, block, index, len);    
+        ByteBuffer dst = block.duplicate();
+        dst.position(index);
+        dst.put(data, 0, len);
+        version++;
     }
 
     /**
@@ -149,12 +257,14 @@ public class JaTapeBlock {
      */
     public byte[] getPart(int index, int length) {
         int len = length;
-        if( index + len > block.length ) {
-            len = block.length - index;
+        if( index + len > block.limit() ) {
+            len = block.limit() - index;
         }
         
         byte[] b = new byte[len];
-        System.arraycopy(block, index, b, 0, len);
+        ByteBuffer src = block.duplicate();
+        src.position(index);
+        src.get(b, 0, len);
         return b;
     }
 
@@ -198,7 +308,7 @@ public class JaTapeBlock {
      * @param crc 
      */
     public void setCrc(byte crc) {
-        setByte(block.length-1, crc);
+        setByte(block.limit()-1, crc);
     }
     
     /**
@@ -206,7 +316,7 @@ public class JaTapeBlock {
      * @return 
      */
     public byte getCrc() {
-        return getByte(block.length-1);
+        return getByte(block.limit()-1);
     }
 
     /**
@@ -225,14 +335,58 @@ public class JaTapeBlock {
     }
     
     /**
-     * Calculate a correct Block CRC value. Do not change current CRC value.
+     * Check if a Block position is covered by the CRC
+     * @param index Block position
+     * @return True if not the block type or CRC byte
+     */
+    private boolean inCrc(int index) {
+        return index >= 1 && index < block.limit()-1;
+    }
+
+    /**
+     * Get a correct Block CRC value. Do not change current CRC value.
+     * Kept up to date by the Block setters, calculated once otherwise
      * @return calculated CRC value
      */
-    public byte crc() { // Calculate CRC
-        byte c = 0;
+    public byte crc() {
+        if(!xorValid) {
+            xor = calculateCrc();
+            xorValid = true;
+        }
+        return xor;
+    }
+
+    /**
+     * Calculate a correct Block CRC value over the whole Block
+     * @return calculated CRC value
+     */
+    private byte calculateCrc() { // Calculate CRC
         // Callculation does not include block type and CRC bytes
-        for(int i = 1; i < block.length-1; i++) {
-            c ^= getByte(i);
+        return checksum(block, 1, block.limit()-1);
+    }
+
+    /**
+     * XOR checksum of a buffer range, 8 bytes at a time.
+     * A little endian long view XORs 8 bytes per read; the 8 lanes are
+     * then folded to a byte and the tail bytes XORed one by one.
+     * @param buf buffer to check, position and limit are ignored
+     * @param from first position
+     * @param to position after the last one
+     * @return XOR of all bytes in range
+     */
+    public static byte checksum(ByteBuffer buf, int from, int to) {
+        ByteBuffer b = buf.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        long acc = 0;
+        int i = from;
+        for(; i + 8 <= to; i += 8) { // 8 bytes per step
+            acc ^= b.getLong(i);
+        }
+        acc ^= acc >>> 32; // fold lanes
+        acc ^= acc >>> 16;
+        acc ^= acc >>> 8;
+        byte c = (byte)acc;
+        for(; i < to; i++) {         // tail bytes
+            c ^= b.get(i);
         }
         return c;
     }
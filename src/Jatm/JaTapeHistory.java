@@ -0,0 +1,319 @@
+/*
+ * JaTapeHistory - Undo and Redo of tape list edits
+ *
+ * This file is part of JAtm - The Jupiter Ace tape manager.
+ *
+ * JAtm is a tool to manage Jupiter Ace tape files in several formats.
+ * Copyright (C) 2015  Ricardo Fernandes Lopes
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package Jatm;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Undo and Redo history of a tape list.
+ * Each step keeps only the list positions it changed and snapshots of the
+ * tapes there. Snapshots are tape copies sharing their blocks storage,
+ * so a step costs a few objects per changed tape, not a copy of its data.
+ * Edits are recorded between a begin and an end call:
+ *  - beginEdit/endEdit around changes to the contents of some tapes
+ *  - beginChange/endChange around insertions, removals and moves
+ * A list change may be left open while tapes are added over time;
+ * it is finished before any other step is recorded, undone or redone
+ * @author Ricardo F. Lopes
+ */
+public class JaTapeHistory {
+    private static final int DEFAULT_DEPTH = 100; // Steps kept for Undo
+
+    private final List<JaTape> list;
+    private final int depth;
+    private final Deque<Step> undoSteps;
+    private final Deque<Step> redoSteps;
+
+    private String pendingName;   // name of the step being recorded
+    private int[] pendingRows;    // tapes being edited
+    private JaTape[] pendingTapes; // edited tapes before change, or whole list
+
+    /**
+     * Constructor
+     * @param tapeList tape list to keep history of
+     */
+    public JaTapeHistory(List<JaTape> tapeList) {
+        this(tapeList, DEFAULT_DEPTH);
+    }
+
+    /**
+     * Constructor
+     * @param tapeList tape list to keep history of
+     * @param depth maximum number of Undo steps
+     */
+    public JaTapeHistory(List<JaTape> tapeList, int depth) {
+        list = tapeList;
+        this.depth = depth;
+        undoSteps = new ArrayDeque<>();
+        redoSteps = new ArrayDeque<>();
+    }
+
+    /**
+     * Start recording a change to the contents of some tapes
+     * @param name step name, as shown to the user
+     * @param rows list positions of the tapes to be changed
+     */
+    public void beginEdit(String name, int[] rows) {
+        endChange(); // finish a change left open
+        pendingName = name;
+        pendingRows = rows.clone();
+        pendingTapes = new JaTape[rows.length];
+        for(int i = 0; i < rows.length; i++) {
+            pendingTapes[i] = new JaTape(list.get(rows[i])); // shared snapshot
+        }
+    }
+
+    /**
+     * Finish recording a change to the contents of tapes.
+     * Tapes left unchanged are not recorded
+     */
+    public void endEdit() {
+        if(pendingRows == null) {
+            return; // nothing being recorded
+        }
+        List<Change> changes = new ArrayList<>();
+        for(int i = 0; i < pendingRows.length; i++) {
+            JaTape tape = list.get(pendingRows[i]);
+            if(!tape.sameContents(pendingTapes[i])) {
+                changes.add(new Change(pendingRows[i],
+                        new JaTape[] { pendingTapes[i] },
+                        new JaTape[] { new JaTape(tape) }));
+            }
+        }
+        record(changes);
+    }
+
+    /**
+     * Start recording insertions, removals or moves of tapes in the list
+     * @param name step name, as shown to the user
+     */
+    public void beginChange(String name) {
+        endChange(); // finish a change left open
+        pendingName = name;
+        pendingRows = null;
+        pendingTapes = list.toArray(new JaTape[list.size()]);
+    }
+
+    /**
+     * Finish recording a list change.
+     * Only the list section between the first and last changed positions
+     * is recorded
+     */
+    public void endChange() {
+        if(pendingTapes == null || pendingRows != null) {
+            return; // nothing being recorded
+        }
+        JaTape[] before = pendingTapes;
+        int size = list.size();
+        int head = 0; // unchanged tapes at list start
+        while(head < before.length && head < size && before[head] == list.get(head)) {
+            head++;
+        }
+        int tail = 0; // unchanged tapes at list end
+        while(tail < before.length - head && tail < size - head
+                && before[before.length-1-tail] == list.get(size-1-tail)) {
+            tail++;
+        }
+
+        List<Change> changes = new ArrayList<>();
+        if(head < before.length - tail || head < size - tail) {
+            JaTape[] removed = new JaTape[before.length - tail - head];
+            for(int i = 0; i < removed.length; i++) {
+                removed[i] = new JaTape(before[head+i]);
+            }
+            JaTape[] inserted = new JaTape[size - tail - head];
+            for(int i = 0; i < inserted.length; i++) {
+                inserted[i] = new JaTape(list.get(head+i));
+            }
+            changes.add(new Change(head, removed, inserted));
+        }
+        record(changes);
+    }
+
+    /**
+     * Check if a list change is being recorded
+     * @return true between beginChange and endChange
+     */
+    public boolean isChanging() {
+        return pendingTapes != null && pendingRows == null;
+    }
+
+    /**
+     * Check if there is a step to undo
+     * @return true if undo is possible
+     */
+    public boolean canUndo() {
+        return !undoSteps.isEmpty();
+    }
+
+    /**
+     * Check if there is a step to redo
+     * @return true if redo is possible
+     */
+    public boolean canRedo() {
+        return !redoSteps.isEmpty();
+    }
+
+    /**
+     * Get the name of the step undo would revert
+     * @return step name or an empty string
+     */
+    public String getUndoName() {
+        return undoSteps.isEmpty() ? "" : undoSteps.peek().name;
+    }
+
+    /**
+     * Get the name of the step redo would apply
+     * @return step name or an empty string
+     */
+    public String getRedoName() {
+        return redoSteps.isEmpty() ? "" : redoSteps.peek().name;
+    }
+
+    /**
+     * Revert the last recorded step
+     * @return list positions restored by the step, empty if nothing to undo
+     */
+    public int[] undo() {
+        endChange(); // finish a change left open
+        if(undoSteps.isEmpty()) {
+            return new int[0];
+        }
+        Step step = undoSteps.pop();
+        redoSteps.push(step);
+        for(int i = step.changes.length-1; i >= 0; i--) { // last change first
+            Change c = step.changes[i];
+            replace(c.index, c.after.length, c.before);
+        }
+        return step.rows(true);
+    }
+
+    /**
+     * Apply again the last undone step
+     * @return list positions changed by the step, empty if nothing to redo
+     */
+    public int[] redo() {
+        endChange(); // finish a change left open
+        if(redoSteps.isEmpty()) {
+            return new int[0];
+        }
+        Step step = redoSteps.pop();
+        undoSteps.push(step);
+        for (Change c : step.changes) {
+            replace(c.index, c.before.length, c.after);
+        }
+        return step.rows(false);
+    }
+
+    /**
+     * Forget all recorded steps
+     */
+    public void clear() {
+        undoSteps.clear();
+        redoSteps.clear();
+        pendingName = null;
+        pendingRows = null;
+        pendingTapes = null;
+    }
+
+    // ================= PRIVATE =======================
+    /**
+     * Push a new step, dropping the Redo steps and the oldest Undo steps
+     */
+    private void record(List<Change> changes) {
+        if(!changes.isEmpty()) {
+            undoSteps.push(new Step(pendingName, changes.toArray(new Change[changes.size()])));
+            while(undoSteps.size() > depth) {
+                undoSteps.removeLast();
+            }
+            redoSteps.clear();
+        }
+        pendingName = null;
+        pendingRows = null;
+        pendingTapes = null;
+    }
+
+    /**
+     * Replace a list section with copies of snapshot tapes.
+     * Snapshots are never placed in the list, so they stay unchanged
+     */
+    private void replace(int index, int count, JaTape[] tapes) {
+        List<JaTape> section = list.subList(index, index + count);
+        section.clear();
+        List<JaTape> copies = new ArrayList<>(tapes.length);
+        for (JaTape tape : tapes) {
+            copies.add(new JaTape(tape));
+        }
+        section.addAll(copies);
+    }
+
+    /**
+     * A list section replaced by other tapes
+     */
+    private static class Change {
+        final int index;        // section start
+        final JaTape[] before;  // section snapshot before the change
+        final JaTape[] after;   // section snapshot after the change
+
+        Change(int index, JaTape[] before, JaTape[] after) {
+            this.index = index;
+            this.before = before;
+            this.after = after;
+        }
+    }
+
+    /**
+     * A named group of changes, undone and redone together
+     */
+    private static class Step {
+        final String name;
+        final Change[] changes;
+
+        Step(String name, Change[] changes) {
+            this.name = name;
+            this.changes = changes;
+        }
+
+        /**
+         * List positions holding the restored tapes
+         * @param undone true for the state before the step
+         */
+        int[] rows(boolean undone) {
+            int count = 0;
+            for (Change c : changes) {
+                count += undone ? c.before.length : c.after.length;
+            }
+            int[] rows = new int[count];
+            int n = 0;
+            for (Change c : changes) {
+                int length = undone ? c.before.length : c.after.length;
+                for(int i = 0; i < length; i++) {
+                    rows[n++] = c.index + i;
+                }
+            }
+            return rows;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * JaTapeListOrder - Bulk moves and removals of tapes in a tape list
+ *
+ * This file is part of JAtm - The Jupiter Ace tape manager.
+ *
+ * JAtm is a tool to manage Jupiter Ace tape files in several formats.
+ * Copyright (C) 2015  Ricardo Fernandes Lopes
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package Jatm;
+
+import java.util.List;
+
+/**
+ * Moves and removes a selection of tapes in a single pass over the list.
+ * Selections are list positions in ascending order, as given by a table.
+ * Selected tapes keep their relative order, and so do the others.
+ * Move methods return the new selection positions, or the same
+ * selection if it can not move further.
+ * @author Ricardo F. Lopes
+ */
+public class JaTapeListOrder {
+
+    private JaTapeListOrder() {
+    }
+
+    /**
+     * Move selected tapes one position up
+     * @param list tape list
+     * @param rows selected positions
+     * @return selection new positions
+     */
+    public static int[] moveUp(List<JaTape> list, int[] rows) {
+        if(rows.length == 0 || rows[0] <= 0) {
+            return rows; // top reached
+        }
+        return shift(list, rows, -1);
+    }
+
+    /**
+     * Move selected tapes one position down
+     * @param list tape list
+     * @param rows selected positions
+     * @return selection new positions
+     */
+    public static int[] moveDown(List<JaTape> list, int[] rows) {
+        if(rows.length == 0 || rows[rows.length-1] >= list.size()-1) {
+            return rows; // bottom reached
+        }
+        return shift(list, rows, 1);
+    }
+
+    /**
+     * Move selected tapes up until the first one reaches the list top.
+     * Spacing between selected tapes is kept
+     * @param list tape list
+     * @param rows selected positions
+     * @return selection new positions
+     */
+    public static int[] moveTop(List<JaTape> list, int[] rows) {
+        if(rows.length == 0 || rows[0] <= 0) {
+            return rows; // top reached
+        }
+        return shift(list, rows, -rows[0]);
+    }
+
+    /**
+     * Move selected tapes down until the last one reaches the list bottom.
+     * Spacing between selected tapes is kept
+     * @param list tape list
+     * @param rows selected positions
+     * @return selection new positions
+     */
+    public static int[] moveBottom(List<JaTape> list, int[] rows) {
+        if(rows.length == 0 || rows[rows.length-1] >= list.size()-1) {
+            return rows; // bottom reached
+        }
+        return shift(list, rows, list.size()-1 - rows[rows.length-1]);
+    }
+
+    /**
+     * Remove selected tapes from the list
+     * @param list tape list
+     * @param rows selected positions
+     */
+    public static void remove(List<JaTape> list, int[] rows) {
+        int count = rows.length;
+        if(count == 0) {
+            return;
+        }
+        int size = list.size();
+        int write = rows[0]; // slide remaining tapes up, from first selection
+        int next = 0;        // next selection to skip
+        for(int read = rows[0]; read < size; read++) {
+            if(next < count && rows[next] == read) {
+                next++;
+            } else {
+                list.set(write++, list.get(read));
+            }
+        }
+        list.subList(write, size).clear();
+    }
+
+    // ================= PRIVATE =======================
+    /**
+     * Move selected tapes by the same distance. Other tapes in the way
+     * fill the positions left free, in their original order
+     * @param list tape list
+     * @param rows selected positions
+     * @param distance positions to move, negative moves up
+     * @return selection new positions
+     */
+    private static int[] shift(List<JaTape> list, int[] rows, int distance) {
+        int count = rows.length;
+        int first = Math.min(rows[0], rows[0] + distance);           // changed
+        int last = Math.max(rows[count-1], rows[count-1] + distance); // section
+        JaTape[] section = new JaTape[last - first + 1];
+        boolean[] target = new boolean[section.length];
+        int[] moved = new int[count];
+        for(int i = 0; i < count; i++) {
+            moved[i] = rows[i] + distance;
+            section[moved[i] - first] = list.get(rows[i]);
+            target[moved[i] - first] = true;
+        }
+        int write = 0;  // next free position
+        int next = 0;   // next selection to skip
+        for(int read = first; read <= last; read++) {
+            if(next < count && rows[next] == read) {
+                next++;
+                continue;
+            }
+            while(target[write]) {
+                write++;
+            }
+            section[write++] = list.get(read);
+        }
+        for(int i = 0; i < section.length; i++) {
+            list.set(first + i, section[i]);
+        }
+        return moved;
+    }
+}
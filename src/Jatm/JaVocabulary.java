@@ -20,13 +20,24 @@
 package Jatm;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import static java.lang.Integer.parseInt;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
+import java.util.TreeMap;
 
 /*
  RAM Vocabulary Word Structure:
@@ -44,10 +55,12 @@ import java.util.Stack;
  */
 public class JaVocabulary {
     private final JaTape tape;                            // The tape file
+    private final JaMemory mem;                           // File memory image
     private final Stack<Integer> vocStack;                // VOCABULARY words
     private static final HashMap<Integer, String> ROM_CFA_LIST;  // ROM CFA list
     private final HashMap<Integer, String> fileCfaList; // File CFA list
     private String vlist; // VLIST text
+    private List<Word> words; // words summary, built when first asked
 
     private static final int MAX_WORDS_PER_LINE = 5; // Max Number of Words per line in code listing
 
@@ -114,6 +127,7 @@ public class JaVocabulary {
      */
     public JaVocabulary(JaTape tapeFile) {
         tape = tapeFile;
+        mem = tapeFile.getMemoryImage();
 
         fileCfaList = new HashMap<>(); // Tape File words
         vocStack = new Stack<>();          // File Vocabularies
@@ -128,6 +142,33 @@ public class JaVocabulary {
         return vlist;
     }
 
+    /**
+     * Get all words in file, oldest first. Each word body is hashed with
+     * file word CFAs replaced by their names, so the hash does not depend
+     * on where the word is placed in memory
+     * @return words, empty if not a Dictionary file
+     */
+    public List<Word> getWords() {
+        if(words == null) {
+            words = new ArrayList<>();
+            if(tape.isDict()) {
+                buildWords();
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Decompile a single word
+     * @param word word from this vocabulary
+     * @return word code text
+     */
+    public String decompile(Word word) {
+        StringBuilder out = new StringBuilder();
+        decodeWord(word.link, out);
+        return out.toString();
+    }
+
     /**
      * Build vocabulary list
      */
@@ -147,11 +188,11 @@ public class JaVocabulary {
      * @return word name string
      */
     private String getWordName(int link) {
-        byte nameLength = (byte) (tape.getMemByte(link) & 0x3F); // clear bits 6,7
+        byte nameLength = (byte) (mem.getByte(link) & 0x3F); // clear bits 6,7
         // Get Word Name Characters
         byte[] nameChars = new byte[nameLength];
         for (int i = 0; i < nameLength; i++) { // clear bit-7 of all chars
-            nameChars[i] = (byte) (tape.getMemByte(link - 4 - nameLength + i) & 0x7F);
+            nameChars[i] = (byte) (mem.getByte(link - 4 - nameLength + i) & 0x7F);
         }
         // Create Word Name String
         String name = new String(nameChars, StandardCharsets.UTF_8);
@@ -164,7 +205,7 @@ public class JaVocabulary {
      * @return link to previous word in linking chain
      */
     private int getNextWord(int link) {
-        return tape.getMemWord(link + LINK_OFFSET);
+        return mem.getWord(link + LINK_OFFSET);
     }
 
     /**
@@ -173,7 +214,7 @@ public class JaVocabulary {
      * @return contents of the Code Field
      */
     private int getCodeField(int link) {
-        return tape.getMemWord(link + CFA_OFFSET);
+        return mem.getWord(link + CFA_OFFSET);
     }
 
     /**
@@ -182,7 +223,7 @@ public class JaVocabulary {
      * @return link to newest word in Vocabulary
      */
     private int getVocabTopWordLink(int link) {
-        return tape.getMemWord(link + TOPWRD_OFFSET);
+        return mem.getWord(link + TOPWRD_OFFSET);
     }
 
     /**
@@ -209,7 +250,7 @@ public class JaVocabulary {
      */
     private int listWords(int link, StringBuilder out ) {
         int count = 0;
-        while( tape.validAddress(link) ) {
+        while( mem.validAddress(link) ) {
             fileCfaList.put(link + CFA_OFFSET, getWordName(link)); // build list of CFA in tape file
             out.append(String.format("%04Xh: ", link+CFA_OFFSET)); // CFA
             out.append(getWordName(link)).append("\n");            // Word name
@@ -251,7 +292,7 @@ public class JaVocabulary {
     private void decodeWord(int link, StringBuilder out) {
         String wordName = getWordName(link); // get word Name
         int cfa = getCodeField(link);        // get word Code Field content
-        int wordLength = tape.getMemWord(link + LENGTH_OFFSET) - 7;
+        int wordLength = mem.getWord(link + LENGTH_OFFSET) - 7;
 
         switch (cfa) {  // Append Word prefix according to code field
             case CREATE:   // CREATE name (size)
@@ -293,7 +334,7 @@ public class JaVocabulary {
     private void decodeVocab(int link, StringBuilder out) {
         Stack<Integer> wordStack = new Stack<>(); // list of words in vocabulary
         // build word list
-         while( tape.validAddress(link) ) {
+         while( mem.validAddress(link) ) {
             wordStack.push(link);
             link = getNextWord(link);                      // get next word link                                     // count words in dictionary
         }
@@ -332,13 +373,13 @@ public class JaVocabulary {
      * @param cfa is te Code Field Address of the word to disassemble
      */
     private void decodeDoColon(int link, StringBuilder out) {
-        int parameterLength = tape.getMemWord(link + LENGTH_OFFSET) - 7; // Parameter Field Length
+        int parameterLength = mem.getWord(link + LENGTH_OFFSET) - 7; // Parameter Field Length
         int parameterField = link + PFA_OFFSET;    // Parameter Field Address
         int address = parameterField;              // current address
         int wordCount = MAX_WORDS_PER_LINE;        // Start with a new line now
         int tab = 1;                               // start with one space tab
         while (address < parameterField + parameterLength) {
-            int cfa = tape.getMemWord(address); // get token to disassemble
+            int cfa = mem.getWord(address); // get token to disassemble
 
             wordCount++; // Count words printed in this line
             // Check for ROM words that decreases identation
@@ -394,7 +435,7 @@ public class JaVocabulary {
                     out.append(")");
                     break;
                 case ROM_STK_BYTE:     // Stack Single Byte (ASCII)
-                    out.append(" ").append((char) (tape.getMemByte(address))); // Character
+                    out.append(" ").append((char) (mem.getByte(address))); // Character
                     address++;         // drop 1 bytes
                     break;
                 case ROM_STK_INT:      // Stack Integer Number (2 bytes)
@@ -436,11 +477,148 @@ public class JaVocabulary {
             }
             out.append(" ");                       // append a space between words
         }
-        if ((tape.getMemByte(link) & 0x40) != 0) { // bit6 = immediate flag
+        if ((mem.getByte(link) & 0x40) != 0) { // bit6 = immediate flag
             out.append("IMMEDIATE");
         }
     }
 
+    /**
+     * Collect words of all vocabularies and hash their bodies.
+     * Words linked from a vocabulary into FORTH are kept in FORTH
+     */
+    private void buildWords() {
+        Set<Integer> seen = new HashSet<>();
+        TreeMap<Integer, Integer> byAddress = new TreeMap<>(); // link of word at address
+        List<Integer> links = new ArrayList<>();
+        Map<Integer, String> vocabularies = new HashMap<>();
+        int link = tape.getParameter(JaTape.CURR_WRD);
+        collectWords(link, "FORTH", seen, links, vocabularies);
+        for (Integer vocLink : vocStack) {
+            collectWords(getVocabTopWordLink(vocLink), getWordName(vocLink), seen, links, vocabularies);
+        }
+        for (Integer wordLink : links) {
+            byAddress.put(wordLink - 4 - (mem.getByte(wordLink) & 0x3F), wordLink); // name start
+        }
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex); // required in every Java platform
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+        for (Integer wordLink : links) {
+            body.reset();
+            try {
+                normalizeWord(wordLink, byAddress, out);
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex); // not thrown by memory streams
+            }
+            byte[] hash = digest.digest(body.toByteArray());
+            long value = 0;
+            for(int i = 0; i < 8; i++) {
+                value = (value << 8) | (hash[i] & 0xFF);
+            }
+            words.add(new Word(wordLink, getWordName(wordLink), vocabularies.get(wordLink),
+                    getCodeField(wordLink), (mem.getByte(wordLink) & 0x40) != 0,
+                    mem.getWord(wordLink + LENGTH_OFFSET) - 7, value));
+        }
+        Collections.reverse(words); // oldest first
+    }
+
+    /**
+     * Collect the words of a link chain not seen yet, newest first
+     */
+    private void collectWords(int link, String vocabulary, Set<Integer> seen,
+            List<Integer> links, Map<Integer, String> vocabularies) {
+        while(mem.validAddress(link) && seen.add(link)) {
+            links.add(link);
+            vocabularies.put(link, vocabulary);
+            link = getNextWord(link);
+        }
+    }
+
+    /**
+     * Write a relocation independent form of a word: flags, code field
+     * and parameter field. File addresses are written as the name of
+     * the word holding them and an offset
+     */
+    private void normalizeWord(int link, TreeMap<Integer, Integer> byAddress,
+            DataOutputStream out) throws IOException {
+        int cfa = getCodeField(link);
+        int parameterLength = mem.getWord(link + LENGTH_OFFSET) - 7;
+        int parameterField = link + PFA_OFFSET;
+        out.writeByte(mem.getByte(link) & 0x40); // immediate flag
+        writeAddress(cfa, byAddress, out);
+        if(cfa != DOCOLON && cfa != DEFINER && cfa != COMPILER) {
+            for(int i = 0; i < parameterLength; i++) { // data words: raw contents
+                out.writeByte(mem.getByte(parameterField + i));
+            }
+            return;
+        }
+        int address = parameterField;
+        while (address < parameterField + parameterLength) {
+            int token = mem.getWord(address);
+            address += 2;
+            writeAddress(token, byAddress, out);
+            int skip = 0; // inline parameter bytes
+            switch (token) {
+                case ROM_PRINT_STRING:
+                case ROM_COMMENT:
+                    skip = mem.getWord(address) + 2;
+                    break;
+                case ROM_STK_BYTE:
+                    skip = 1;
+                    break;
+                case ROM_STK_INT:
+                case ROM_IF:
+                case ROM_ELSE:
+                case ROM_WHILE:
+                case ROM_LOOP:
+                case ROM_PLOOP:
+                case ROM_UNTIL:
+                case ROM_REPEAT:
+                    skip = 2;
+                    break;
+                case ROM_STK_FP:
+                    skip = 4;
+                    break;
+                case ROM_DOES:
+                case ROM_RUNS:
+                    skip = 5;
+                    break;
+                default:
+            }
+            for(int i = 0; i < skip; i++) { // literals and offsets are kept
+                out.writeByte(mem.getByte(address + i));
+            }
+            address += skip;
+        }
+    }
+
+    /**
+     * Write a ROM address as is and a file address by word name
+     */
+    private void writeAddress(int address, TreeMap<Integer, Integer> byAddress,
+            DataOutputStream out) throws IOException {
+        String name = fileCfaList.get(address);
+        if(name != null) {
+            out.writeByte('W');  // file word
+            out.writeUTF(name);
+            return;
+        }
+        Map.Entry<Integer, Integer> holder = byAddress.floorEntry(address);
+        if(mem.validAddress(address) && holder != null) {
+            out.writeByte('A');  // inside a file word
+            out.writeUTF(getWordName(holder.getValue()));
+            out.writeShort(address - holder.getValue());
+            return;
+        }
+        out.writeByte('R');      // ROM or unknown address
+        out.writeShort(address);
+    }
+
     /**
      * Decode a String
      * @param out Output StringBuilder buffer to append the string
@@ -448,11 +626,11 @@ public class JaVocabulary {
      * @return string length in bytes
      */
     private int appendString(StringBuilder out, int address) {
-        int strlen = tape.getMemWord(address);  // String Length
+        int strlen = mem.getWord(address);  // String Length
         address = address + 2;
         int c;
         for (int i = 0; i < strlen; i++) {
-            c = tape.getMemByte(address) & 0xFF;
+            c = mem.getByte(address) & 0xFF;
             out.append((char)c);
             address++;
         }
@@ -471,8 +649,8 @@ public class JaVocabulary {
      * @param address Floatinf point number structure location
      */
     private int appendFloat(StringBuilder out, int address) {
-        int loWord = tape.getMemWord(address);
-        int hiWord = tape.getMemWord(address + 2);
+        int loWord = mem.getWord(address);
+        int hiWord = mem.getWord(address + 2);
         if ((hiWord & 0x8000) != 0) {                     // Negative Number
             out.append("-");
         }
@@ -527,10 +705,62 @@ public class JaVocabulary {
      * @return Decoded integer number
      */
     private int getInt(int address) {
-        int number = tape.getMemWord(address);
+        int number = mem.getWord(address);
         if ((number & 0x8000) != 0) {            // if negative number..
             number = -(1 + (number ^ 0xFFFF));   // ..convert
         }
         return number;
     }
+
+    /**
+     * A word defined in a Dictionary file
+     */
+    public static class Word {
+        private final int link;        // name length field address
+        private final String name;
+        private final String vocabulary;
+        private final int codeField;
+        private final boolean immediate;
+        private final int length;      // parameter field length
+        private final long hash;       // relocation independent body hash
+
+        Word(int link, String name, String vocabulary, int codeField,
+                boolean immediate, int length, long hash) {
+            this.link = link;
+            this.name = name;
+            this.vocabulary = vocabulary;
+            this.codeField = codeField;
+            this.immediate = immediate;
+            this.length = length;
+            this.hash = hash;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getVocabulary() {
+            return vocabulary;
+        }
+
+        public int getCfa() {
+            return link + CFA_OFFSET;
+        }
+
+        public int getCodeField() {
+            return codeField;
+        }
+
+        public boolean isImmediate() {
+            return immediate;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public long getHash() {
+            return hash;
+        }
+    }
 }
@@ -0,0 +1,290 @@
+/*
+ * JatmDataDiff - Byte level difference of tape data blocks for Jatm
+ *
+ * This file is part of JAtm - The Jupiter Ace tape manager.
+ *
+ * JAtm is a tool to manage Jupiter Ace tape files in several formats.
+ * Copyright (C) 2015  Ricardo Fernandes Lopes
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package Jatm;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds the byte ranges that differ between two byte arrays.
+ * Equal runs are skipped 8 bytes at a time. Shifted content, from bytes
+ * inserted or deleted, is aligned with the Myers O(ND) difference
+ * algorithm in linear space (middle snake bisection). The number of
+ * differences searched per region is capped; a region with more is
+ * reported as one changed range, so time stays bounded.
+ * @author Ricardo F. Lopes
+ */
+public class JatmDataDiff {
+    public static final int DEFAULT_MAX_EDITS = 1024; // edit search cap
+
+    private final byte[] a;
+    private final byte[] b;
+    private final ByteBuffer wordsA; // 8 byte reads
+    private final ByteBuffer wordsB;
+    private final int maxEdits;
+    private final List<Range> ranges;
+
+    /**
+     * Constructor
+     * @param a first byte array
+     * @param b second byte array
+     */
+    public JatmDataDiff(byte[] a, byte[] b) {
+        this(a, b, DEFAULT_MAX_EDITS);
+    }
+
+    /**
+     * Constructor
+     * @param a first byte array
+     * @param b second byte array
+     * @param maxEdits most differences searched in a region
+     */
+    public JatmDataDiff(byte[] a, byte[] b, int maxEdits) {
+        this.a = a;
+        this.b = b;
+        wordsA = ByteBuffer.wrap(a).order(ByteOrder.LITTLE_ENDIAN);
+        wordsB = ByteBuffer.wrap(b).order(ByteOrder.LITTLE_ENDIAN);
+        this.maxEdits = Math.max(1, maxEdits);
+        ranges = new ArrayList<>();
+        diff(0, a.length, 0, b.length);
+        merge();
+    }
+
+    /**
+     * Get the differing ranges
+     * @return ranges in array order
+     */
+    public List<Range> getRanges() {
+        return ranges;
+    }
+
+    /**
+     * Get the number of bytes of the first array found in the second one
+     * @return equal bytes count
+     */
+    public int getEqualCount() {
+        int equal = a.length;
+        for (Range range : ranges) {
+            equal -= range.aLength;
+        }
+        return equal;
+    }
+
+    /**
+     * Find the first position where two arrays differ, 8 bytes at a time
+     * @param a first array
+     * @param aFrom first array start
+     * @param b second array
+     * @param bFrom second array start
+     * @param length bytes to compare
+     * @return offset of first difference from start, or length if all equal
+     */
+    public static int mismatch(byte[] a, int aFrom, byte[] b, int bFrom, int length) {
+        return prefix(ByteBuffer.wrap(a).order(ByteOrder.LITTLE_ENDIAN), aFrom,
+                      ByteBuffer.wrap(b).order(ByteOrder.LITTLE_ENDIAN), bFrom, length);
+    }
+
+    // ================= PRIVATE =======================
+    /**
+     * Diff a region: trim equal ends, then align the middle
+     */
+    private void diff(int aLo, int aHi, int bLo, int bHi) {
+        int head = prefix(wordsA, aLo, wordsB, bLo, Math.min(aHi - aLo, bHi - bLo));
+        aLo += head;
+        bLo += head;
+        int tail = suffix(aHi, bHi, Math.min(aHi - aLo, bHi - bLo));
+        aHi -= tail;
+        bHi -= tail;
+        if(aLo == aHi && bLo == bHi) {
+            return; // equal
+        }
+        if(aLo == aHi || bLo == bHi) {
+            ranges.add(new Range(aLo, aHi - aLo, bLo, bHi - bLo)); // insertion or deletion
+            return;
+        }
+        bisect(aLo, aHi, bLo, bHi);
+    }
+
+    /**
+     * Find the middle snake of a region and diff both halves,
+     * searching forward from the start and backward from the end
+     */
+    private void bisect(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int maxD = Math.min((n + m + 1) / 2, maxEdits);
+        int offset = maxD + 1;
+        int[] forward = new int[2*maxD + 3];  // furthest x on each diagonal
+        int[] backward = new int[2*maxD + 3];
+        Arrays.fill(forward, -1);
+        Arrays.fill(backward, -1);
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        int delta = n - m;
+        boolean front = (delta & 1) != 0; // odd: paths meet on a forward step
+        int kStart1 = 0, kEnd1 = 0, kStart2 = 0, kEnd2 = 0; // diagonals off the region
+        for(int d = 0; d < maxD; d++) {
+            for(int k = -d + kStart1; k <= d - kEnd1; k += 2) {
+                int i = offset + k;
+                int x = (k == -d || (k != d && forward[i-1] < forward[i+1]))
+                        ? forward[i+1] : forward[i-1] + 1;
+                int y = x - k;
+                if(x < n && y < m) {
+                    x += prefix(wordsA, aLo + x, wordsB, bLo + y, Math.min(n - x, m - y));
+                    y = x - k;
+                }
+                forward[i] = x;
+                if(x > n) {
+                    kEnd1 += 2;   // off the right
+                } else if(y > m) {
+                    kStart1 += 2; // off the bottom
+                } else if(front) {
+                    int j = offset + delta - k;
+                    if(j >= 0 && j < backward.length && backward[j] != -1 && x >= n - backward[j]) {
+                        split(aLo, aHi, bLo, bHi, x, y);
+                        return;
+                    }
+                }
+            }
+            for(int k = -d + kStart2; k <= d - kEnd2; k += 2) {
+                int i = offset + k;
+                int x = (k == -d || (k != d && backward[i-1] < backward[i+1]))
+                        ? backward[i+1] : backward[i-1] + 1;
+                int y = x - k;
+                if(x < n && y < m) {
+                    x += suffix(aHi - x, bHi - y, Math.min(n - x, m - y));
+                    y = x - k;
+                }
+                backward[i] = x;
+                if(x > n) {
+                    kEnd2 += 2;
+                } else if(y > m) {
+                    kStart2 += 2;
+                } else if(!front) {
+                    int j = offset + delta - k;
+                    if(j >= 0 && j < forward.length && forward[j] != -1) {
+                        int x1 = forward[j];
+                        int y1 = x1 - (j - offset);
+                        if(x1 >= n - x) {
+                            split(aLo, aHi, bLo, bHi, x1, y1);
+                            return;
+                        }
+                    }
+                }
+            }
+        }
+        ranges.add(new Range(aLo, n, bLo, m)); // too different: one change
+    }
+
+    private void split(int aLo, int aHi, int bLo, int bHi, int x, int y) {
+        diff(aLo, aLo + x, bLo, bLo + y);
+        diff(aLo + x, aHi, bLo + y, bHi);
+    }
+
+    /**
+     * Count equal bytes from two positions forward
+     */
+    private static int prefix(ByteBuffer wa, int aFrom, ByteBuffer wb, int bFrom, int length) {
+        int i = 0;
+        while(i + 8 <= length && wa.getLong(aFrom + i) == wb.getLong(bFrom + i)) {
+            i += 8;
+        }
+        byte[] arrayA = wa.array();
+        byte[] arrayB = wb.array();
+        while(i < length && arrayA[aFrom + i] == arrayB[bFrom + i]) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Count equal bytes from two end positions backward
+     */
+    private int suffix(int aEnd, int bEnd, int length) {
+        int i = 0;
+        while(i + 8 <= length && wordsA.getLong(aEnd - i - 8) == wordsB.getLong(bEnd - i - 8)) {
+            i += 8;
+        }
+        while(i < length && a[aEnd - i - 1] == b[bEnd - i - 1]) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Sort ranges and join touching ones
+     */
+    private void merge() {
+        ranges.sort((r, s) -> (r.aStart != s.aStart) ? Integer.compare(r.aStart, s.aStart)
+                                                    : Integer.compare(r.bStart, s.bStart));
+        List<Range> merged = new ArrayList<>(ranges.size());
+        for (Range range : ranges) {
+            Range last = merged.isEmpty() ? null : merged.get(merged.size()-1);
+            if(last != null && last.aStart + last.aLength == range.aStart
+                    && last.bStart + last.bLength == range.bStart) {
+                merged.set(merged.size()-1, new Range(last.aStart, last.aLength + range.aLength,
+                        last.bStart, last.bLength + range.bLength));
+            } else {
+                merged.add(range);
+            }
+        }
+        ranges.clear();
+        ranges.addAll(merged);
+    }
+
+    /**
+     * A range of the first array replaced by a range of the second one.
+     * A zero length means an insertion or deletion at that position
+     */
+    public static class Range {
+        private final int aStart;
+        private final int aLength;
+        private final int bStart;
+        private final int bLength;
+
+        Range(int aStart, int aLength, int bStart, int bLength) {
+            this.aStart = aStart;
+            this.aLength = aLength;
+            this.bStart = bStart;
+            this.bLength = bLength;
+        }
+
+        public int getStartA() {
+            return aStart;
+        }
+
+        public int getLengthA() {
+            return aLength;
+        }
+
+        public int getStartB() {
+            return bStart;
+        }
+
+        public int getLengthB() {
+            return bLength;
+        }
+    }
+}
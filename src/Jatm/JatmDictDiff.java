@@ -0,0 +1,174 @@
+/*
+ * JatmDictDiff - Word by word difference of two Dictionary files for Jatm
+ *
+ * This file is part of JAtm - The Jupiter Ace tape manager.
+ *
+ * JAtm is a tool to manage Jupiter Ace tape files in several formats.
+ * Copyright (C) 2015  Ricardo Fernandes Lopes
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package Jatm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares the words of two Dictionary files instead of their bytes.
+ * Words are matched by vocabulary and name; a name defined more than once
+ * is matched by its definition order. Matched words are compared by their
+ * relocation independent body hash, so words moved by an insertion
+ * earlier in the dictionary are not reported.
+ * @author Ricardo F. Lopes
+ */
+public class JatmDictDiff {
+
+    /**
+     * Difference kinds
+     */
+    public static enum Kind { ADDED, REMOVED, CHANGED }
+
+    private final JaVocabulary first;
+    private final JaVocabulary second;
+    private final List<Change> changes;
+    private int unchanged;
+
+    /**
+     * Constructor: compare two tape files
+     * @param t1 first tape file
+     * @param t2 second tape file
+     */
+    public JatmDictDiff(JaTape t1, JaTape t2) {
+        this(new JaVocabulary(t1), new JaVocabulary(t2));
+    }
+
+    /**
+     * Constructor: compare two vocabularies
+     * @param v1 first file vocabulary
+     * @param v2 second file vocabulary
+     */
+    public JatmDictDiff(JaVocabulary v1, JaVocabulary v2) {
+        first = v1;
+        second = v2;
+        changes = new ArrayList<>();
+
+        Map<String, JaVocabulary.Word> before = byKey(v1.getWords());
+        Map<String, JaVocabulary.Word> after = byKey(v2.getWords());
+        for (Map.Entry<String, JaVocabulary.Word> entry : before.entrySet()) {
+            JaVocabulary.Word word = entry.getValue();
+            JaVocabulary.Word other = after.get(entry.getKey());
+            if(other == null) {
+                changes.add(new Change(Kind.REMOVED, word, null));
+            } else if(other.getHash() != word.getHash()) {
+                changes.add(new Change(Kind.CHANGED, word, other));
+            } else {
+                unchanged++;
+            }
+        }
+        for (Map.Entry<String, JaVocabulary.Word> entry : after.entrySet()) {
+            if(!before.containsKey(entry.getKey())) {
+                changes.add(new Change(Kind.ADDED, null, entry.getValue()));
+            }
+        }
+    }
+
+    /**
+     * Get the differences: removed and changed words in first file
+     * order, then added words in second file order
+     * @return word changes
+     */
+    public List<Change> getChanges() {
+        return changes;
+    }
+
+    /**
+     * Get the number of words equal in both files
+     * @return unchanged word count
+     */
+    public int getUnchangedCount() {
+        return unchanged;
+    }
+
+    /**
+     * Get the first file vocabulary, to decompile its words
+     * @return first vocabulary
+     */
+    public JaVocabulary getFirst() {
+        return first;
+    }
+
+    /**
+     * Get the second file vocabulary, to decompile its words
+     * @return second vocabulary
+     */
+    public JaVocabulary getSecond() {
+        return second;
+    }
+
+    // ================= PRIVATE =======================
+    /**
+     * Key words by vocabulary, name and repeat number, in file order
+     */
+    private static Map<String, JaVocabulary.Word> byKey(List<JaVocabulary.Word> words) {
+        Map<String, JaVocabulary.Word> keys = new LinkedHashMap<>();
+        Map<String, Integer> repeats = new HashMap<>();
+        for (JaVocabulary.Word word : words) {
+            String key = word.getVocabulary() + " " + word.getName();
+            Integer count = repeats.get(key);
+            repeats.put(key, (count == null) ? 1 : count + 1);
+            keys.put((count == null) ? key : key + " #" + (count + 1), word);
+        }
+        return keys;
+    }
+
+    /**
+     * A word added, removed or changed
+     */
+    public static class Change {
+        private final Kind kind;
+        private final JaVocabulary.Word before; // null if added
+        private final JaVocabulary.Word after;  // null if removed
+
+        Change(Kind kind, JaVocabulary.Word before, JaVocabulary.Word after) {
+            this.kind = kind;
+            this.before = before;
+            this.after = after;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public JaVocabulary.Word getBefore() {
+            return before;
+        }
+
+        public JaVocabulary.Word getAfter() {
+            return after;
+        }
+
+        /**
+         * Get the word name and vocabulary
+         * @return name, with vocabulary if not FORTH
+         */
+        public String getName() {
+            JaVocabulary.Word word = (before != null) ? before : after;
+            return word.getVocabulary().equals("FORTH") ? word.getName()
+                    : word.getVocabulary() + " " + word.getName();
+        }
+    }
+}
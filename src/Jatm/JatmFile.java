@@ -21,7 +21,14 @@
  */
 package Jatm;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -31,6 +38,8 @@ import java.util.List;
 public abstract class JatmFile {
     protected String extension;
     protected String description;
+    protected boolean multiTape;
+    protected boolean loadOnly;
 
     public String getExtension() {
         return extension;
@@ -40,7 +49,77 @@ public abstract class JatmFile {
         return description;
     }
 
+    /**
+     * Check if the format stores more than one tape in a file
+     * @return true for multiple tape formats
+     */
+    public boolean isMultiTape() {
+        return multiTape;
+    }
+
+    /**
+     * Check if the format can only be loaded, like archives
+     * @return true if save is not supported
+     */
+    public boolean isLoadOnly() {
+        return loadOnly;
+    }
+
+    /**
+     * Check how likely a file is in this format, from its first bytes.
+     * Formats are shared, so no state is kept by sniff, load or save
+     * @param head file first bytes, may be shorter than the whole file
+     * @param size whole file size in bytes
+     * @return confidence, from 0 (not this format) to 100 (sure),
+     * 1 if the format can not tell
+     */
+    public int sniff(byte[] head, long size) {
+        return 1;
+    }
+
     public abstract int load(Path filePath, List<JaTape> list);
+
+    /**
+     * Load tapes from a stream, such as an archive entry.
+     * Formats that can not decode a stream load a temporary file copy
+     * @param in input stream, read to its end
+     * @param name file name, for tape names
+     * @param list tape list to add the loaded tapes to
+     * @return number of tapes loaded, or negative on error
+     */
+    public int load(InputStream in, String name, List<JaTape> list) {
+        Path temp = null;
+        try {
+            temp = Files.createTempFile("jatm", "." + extension);
+            Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+            return load(temp, list);
+        } catch (IOException ex) {
+            return -1;
+        } finally {
+            if(temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ex) {
+                    // left for the system to clean
+                }
+            }
+        }
+    }
+
+    /**
+     * Open a file to read its tapes. Formats with a tape index override
+     * this to read each tape only when first accessed
+     * @param filePath file to open
+     * @return read only tape list, or null if an error occur
+     */
+    public List<JaTape> open(Path filePath) {
+        List<JaTape> list = new ArrayList<>();
+        if(load(filePath, list) <= 0) {
+            return null;
+        }
+        return Collections.unmodifiableList(list);
+    }
+
     public abstract int save(Path filePath, List<JaTape> list, int[] selection);
     public int getWord(byte[] b, int index) {
         int word = 0;
@@ -48,6 +127,40 @@ public abstract class JatmFile {
         word += (b[index+1] &0xFF) <<8;  // get high byte
         return word;        
     }
+
+    /**
+     * Read a stream to its end
+     * @param in input stream
+     * @return all bytes read
+     * @throws IOException on read error
+     */
+    protected static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Check if a file starts with a signature
+     * @param head file first bytes
+     * @param signature expected bytes
+     * @return true if all signature bytes match
+     */
+    protected static boolean startsWith(byte[] head, byte[] signature) {
+        if(head.length < signature.length) {
+            return false;
+        }
+        for(int i = 0; i < signature.length; i++) {
+            if(head[i] != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
     
     public int loByte(int word) {
         return word & 0x00FF;
@@ -22,6 +22,7 @@
 package Jatm;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
@@ -68,7 +69,20 @@ public class JatmFileBin extends JatmFile {
             return -1;
         }
 
-        list.add( bytTape(0, buf, filePath.getFileName().toString()) );
+        return load(buf, filePath.getFileName().toString(), list);
+    }
+
+    @Override
+    public int load(InputStream in, String name, List<JaTape> list) {
+        try {
+            return load(readAll(in), name, list);
+        } catch (IOException ex) {
+            return -1;
+        }
+    }
+
+    private int load(byte[] buf, String name, List<JaTape> list) {
+        list.add( bytTape(0, buf, name) );
         return 1;
     }
 
@@ -0,0 +1,270 @@
+/*
+ * JatmFileCsw - Compressed Square Wave file format for Jatm
+ *
+ * This file is part of JAtm - The Jupiter Ace tape manager.
+ *
+ * JAtm is a tool to manage Jupiter Ace tape files in several formats.
+ * Copyright (C) 2015  Ricardo Fernandes Lopes
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package Jatm;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * .CSW Compressed Square Wave file format for JAtm.
+ * Each RLE value is a pulse width in samples: a single non zero byte,
+ * or a zero byte followed by a 4 byte little endian width.
+ * Loads versions 1.01 and 2.0, saves version 2.0 Z-RLE.
+ * @author Ricardo F. Lopes
+ */
+public class JatmFileCsw extends JatmFile {
+    private static final byte[] SIGNATURE =
+            "Compressed Square Wave\u001A".getBytes(StandardCharsets.US_ASCII);
+    private static final int RLE   = 1; // Compression type: Run Length Encoding
+    private static final int Z_RLE = 2; // Compression type: deflated RLE
+    private static final int V1_DATA = 0x20; // Version 1 data offset
+    private static final int V2_HEADER = 0x34; // Version 2 header size
+
+    public JatmFileCsw() {
+        extension = "csw";
+        description = "Compressed Square Wave files (*.csw)";
+        multiTape = true;
+    }
+
+    @Override
+    public int sniff(byte[] head, long size) {
+        return startsWith(head, SIGNATURE) ? 100 : 0;
+    }
+
+    @Override
+    public int load(Path filePath, List<JaTape> list) {
+        byte[] buf;
+        try {    // Load whole file to a buffer
+            buf = Files.readAllBytes(filePath);
+        } catch (IOException ex) {
+            return -1;
+        }
+
+        return load(buf, list);
+    }
+
+    @Override
+    public int load(InputStream in, String name, List<JaTape> list) {
+        try {
+            return load(readAll(in), list);
+        } catch (IOException ex) {
+            return -1;
+        }
+    }
+
+    private int load(byte[] buf, List<JaTape> list) {
+        if(buf.length < V1_DATA
+                || !Arrays.equals(Arrays.copyOf(buf, SIGNATURE.length), SIGNATURE)) {
+            return -1; // Not a CSW file
+        }
+
+        int sampleRate;
+        int compression;
+        int flags;
+        int dataStart;
+        if(buf[0x17] == 1) { // Version 1.01
+            sampleRate = getWord(buf, 0x19);
+            compression = buf[0x1B];
+            flags = buf[0x1C];
+            dataStart = V1_DATA;
+        } else {             // Version 2.0
+            if(buf.length < V2_HEADER) {
+                return -1;
+            }
+            sampleRate = getWord(buf, 0x19) | (getWord(buf, 0x1B) << 16);
+            compression = buf[0x21];
+            flags = buf[0x22];
+            dataStart = V2_HEADER + (buf[0x23] & 0xFF); // skip header extension
+        }
+
+        InputStream rle = new ByteArrayInputStream(buf, dataStart, buf.length - dataStart);
+        if(compression == Z_RLE) {
+            rle = new InflaterInputStream(rle);
+        } else if(compression != RLE) {
+            return -1; // Unknown compression
+        }
+
+        // Feed high pulses straight to the tape loader
+        JatmWaveLoad pulseIn = new JatmWaveLoad();
+        boolean high = (flags & 0x01) != 0;
+        if (pulseIn.open(new RlePulses(rle, high), sampleRate)) {
+            return -1;
+        }
+
+        int tapeCount = 0; // Count number of Jupiter Ace tape files found
+        JaTape tape;
+        while((tape = pulseIn.load()) != null) {
+            list.add( tape );    // Add tape to tape list
+            tapeCount++;
+        }
+        pulseIn.close();
+        return tapeCount;
+    }
+
+    @Override
+    public int save(Path filePath, List<JaTape> list, int[] selection) {
+        if(selection.length <= 0) {
+            return -1;  // Error: No tape selection
+        }
+
+        // Encode the WAV writer pulses, low level first
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        RleWriter rle;
+        try (DeflaterOutputStream z = new DeflaterOutputStream(data)) {
+            rle = new RleWriter(z);
+            new JatmWaveSave().savePulses(rle, list, selection);
+            rle.flush();
+        } catch (IOException ex) {
+            return -1;
+        }
+
+        byte[] header = new byte[V2_HEADER];
+        System.arraycopy(SIGNATURE, 0, header, 0, SIGNATURE.length);
+        header[0x17] = 2; // Major version
+        header[0x18] = 0; // Minor version
+        putLong(header, 0x19, JatmWaveSave.getSampleRate());
+        putLong(header, 0x1D, rle.getPulseCount());
+        header[0x21] = Z_RLE;
+        header[0x22] = 0; // Initial polarity: low
+        header[0x23] = 0; // No header extension
+        byte[] app = "JAtm".getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(app, 0, header, 0x24, app.length);
+
+        try (OutputStream out = Files.newOutputStream(filePath)) {
+            out.write(header);
+            data.writeTo(out);
+        } catch (IOException ex) {
+            return -1; // Error writing to file
+        }
+        return 1;   // One file saved
+    }
+
+    private void putLong(byte[] b, int index, long value) {
+        for(int i = 0; i < 4; i++) { // little endian
+            b[index+i] = (byte)(value & 0xFF);
+            value >>= 8;
+        }
+    }
+
+    /**
+     * Decodes RLE pulses, supplying only the high level ones
+     */
+    private static class RlePulses implements JatmWaveLoad.PulseSource {
+        private final InputStream in;
+        private boolean high; // current pulse level
+
+        RlePulses(InputStream in, boolean initialHigh) {
+            this.in = in;
+            // Inverse option swaps the pulse levels
+            high = initialHigh != JatmWaveLoad.getInverseOption();
+        }
+
+        @Override
+        public int nextPulse() {
+            try {
+                int width;
+                do {
+                    width = readPulse();
+                    if(width < 0) {
+                        return -1; // End of pulses
+                    }
+                    high = !high;
+                } while(high); // level after a high pulse is low
+                return width;
+            } catch (IOException ex) {
+                return -1;
+            }
+        }
+
+        private int readPulse() throws IOException {
+            int width = in.read();
+            if(width == 0) { // long pulse: 4 byte width follows
+                width = 0;
+                for(int i = 0; i < 4; i++) {
+                    int b = in.read();
+                    if(b < 0) {
+                        return -1;
+                    }
+                    width |= b << (8*i);
+                }
+                width = (width < 0) ? Integer.MAX_VALUE : width;
+            }
+            return width;
+        }
+    }
+
+    /**
+     * Encodes pulses as RLE, merging consecutive pulses of the same level
+     */
+    private static class RleWriter implements JatmWaveSave.PulseSink {
+        private final OutputStream out;
+        private boolean high = false; // pending pulse level
+        private long width = 0;       // pending pulse width
+        private long pulseCount = 0;
+
+        RleWriter(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void pulse(int samples, boolean level) throws IOException {
+            if(samples <= 0) {
+                return;
+            }
+            if(level != high && width > 0) {
+                flush();
+            }
+            high = level;
+            width += samples;
+        }
+
+        void flush() throws IOException {
+            if(width <= 0) {
+                return;
+            }
+            if(width < 0x100) {
+                out.write((int)width);
+            } else {
+                out.write(0);
+                for(int i = 0; i < 4; i++) { // little endian
+                    out.write((int)(width >> (8*i)) & 0xFF);
+                }
+            }
+            pulseCount++;
+            width = 0;
+        }
+
+        long getPulseCount() {
+            return pulseCount;
+        }
+    }
+}
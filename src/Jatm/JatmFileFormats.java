@@ -0,0 +1,183 @@
+/*
+ * JatmFileFormats - Registry of the tape file formats
+ *
+ * This file is part of JAtm - The Jupiter Ace tape manager.
+ *
+ * JAtm is a tool to manage Jupiter Ace tape files in several formats.
+ * Copyright (C) 2015  Ricardo Fernandes Lopes
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package Jatm;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.ServiceLoader;
+
+/**
+ * Registry of the file formats supported by JAtm.
+ * Formats are found with ServiceLoader, listed in
+ * META-INF/services/Jatm.JatmFile, so a new format only needs a class
+ * and a line there. A file format is detected from its first bytes,
+ * the file name extension only breaks ties.
+ * @author Ricardo F. Lopes
+ */
+public class JatmFileFormats {
+    public static final int SNIFF_LENGTH = 512;   // File bytes read to detect format
+    private static final int EXTENSION_BONUS = 10; // Confidence of a matching extension
+
+    private static final List<JatmFile> FORMATS = loadFormats();
+
+    private JatmFileFormats() {
+    }
+
+    /**
+     * Get all registered file formats, in registration order
+     * @return read only list of formats
+     */
+    public static List<JatmFile> getFormats() {
+        return FORMATS;
+    }
+
+    /**
+     * Get the format for a file name extension
+     * @param extension extension, without dot
+     * @return file format, or null if unknown
+     */
+    public static JatmFile forExtension(String extension) {
+        for (JatmFile format : FORMATS) {
+            if(format.getExtension().equalsIgnoreCase(extension)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the format for a file name, by its extension
+     * @param filename file name
+     * @return file format, or null if unknown extension
+     */
+    public static JatmFile forFileName(String filename) {
+        int dot = filename.lastIndexOf('.');
+        return (dot < 0) ? null : forExtension(filename.substring(dot+1));
+    }
+
+    /**
+     * Detect the format of a file from its contents.
+     * Unreadable files are detected by name only
+     * @param file file path
+     * @return most likely file format
+     */
+    public static JatmFile detect(Path file) {
+        byte[] head = new byte[0];
+        long size = 0;
+        try (InputStream in = Files.newInputStream(file)) {
+            size = Files.size(file);
+            head = readHead(in);
+        } catch (IOException ex) {
+            // leave it to the format load to report
+        }
+        Path name = file.getFileName();
+        return detect(head, size, (name == null) ? "" : name.toString());
+    }
+
+    /**
+     * Detect a file format from the file first bytes.
+     * Each format reports its confidence, a matching file name extension
+     * adds to it unless the format rejects the file.
+     * Binary is the format of last resort
+     * @param head file first bytes, up to SNIFF_LENGTH
+     * @param size whole file size in bytes
+     * @param filename file name, for its extension
+     * @return most likely file format
+     */
+    public static JatmFile detect(byte[] head, long size, String filename) {
+        JatmFile named = forFileName(filename);
+        JatmFile best = null;
+        int bestScore = 0;
+        for (JatmFile format : FORMATS) {
+            int score = format.sniff(head, size);
+            if(score > 0 && format == named) {
+                score += EXTENSION_BONUS;
+            }
+            if(score > bestScore) {
+                best = format;
+                bestScore = score;
+            }
+        }
+        return (best != null) ? best : new JatmFileBin();
+    }
+
+    /**
+     * Detect the format of a stream and load its tapes.
+     * Streams of unknown extension that no format recognizes are skipped,
+     * so archives may hold other files
+     * @param in input stream, such as an archive entry
+     * @param name file name, for its extension and tape names
+     * @param size stream size in bytes, -1 if unknown
+     * @param list tape list to add the loaded tapes to
+     * @return number of tapes loaded, or negative on error
+     * @throws IOException on read error
+     */
+    public static int load(InputStream in, String name, long size, List<JaTape> list) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in);
+        buffered.mark(SNIFF_LENGTH);
+        byte[] head = readHead(buffered);
+        buffered.reset();
+        JatmFile format = detect(head, size, name);
+        if(forFileName(name) == null && format.sniff(head, size) <= 1) {
+            return 0; // not a tape file
+        }
+        return format.load(buffered, name, list);
+    }
+
+    /**
+     * Read the first bytes of a stream
+     * @param in input stream
+     * @return up to SNIFF_LENGTH bytes
+     * @throws IOException on read error
+     */
+    public static byte[] readHead(InputStream in) throws IOException {
+        byte[] head = new byte[SNIFF_LENGTH];
+        int count = 0;
+        int n;
+        while(count < head.length && (n = in.read(head, count, head.length - count)) > 0) {
+            count += n;
+        }
+        return Arrays.copyOf(head, count);
+    }
+
+    // ================= PRIVATE =======================
+    private static List<JatmFile> loadFormats() {
+        List<JatmFile> formats = new ArrayList<>();
+        for (JatmFile format : ServiceLoader.load(JatmFile.class, JatmFile.class.getClassLoader())) {
+            formats.add(format);
+        }
+        if(formats.isEmpty()) { // services file missing: built in formats
+            formats.addAll(Arrays.asList(new JatmFileTap(), new JatmFileJac(),
+                    new JatmFileBin(), new JatmFileHex(), new JatmFileWav(),
+                    new JatmFileCsw(), new JatmFileTzx(), new JatmFileJtl(),
+                    new JatmFileZip(), new JatmFileGz()));
+        }
+        return Collections.unmodifiableList(formats);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * JatmFileGz - GZIP compressed tape file for Jatm
+ *
+ * This file is part of JAtm - The Jupiter Ace tape manager.
+ *
+ * JAtm is a tool to manage Jupiter Ace tape files in several formats.
+ * Copyright (C) 2015  Ricardo Fernandes Lopes
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package Jatm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * .GZ compressed single tape file, load only.
+ * The file is decompressed while decoded, in any known format
+ * named by the file name without .gz
+ * @author Ricardo F. Lopes
+ */
+public class JatmFileGz extends JatmFile {
+
+    public JatmFileGz() {
+        extension = "gz";
+        description = "GZIP files (*.gz)";
+        multiTape = true;
+        loadOnly = true;
+    }
+
+    @Override
+    public int sniff(byte[] head, long size) {
+        return (head.length >= 2 && head[0] == 0x1F && head[1] == (byte) 0x8B) ? 100 : 0;
+    }
+
+    @Override
+    public int load(Path filePath, List<JaTape> list) {
+        try (InputStream in = Files.newInputStream(filePath)) {
+            return load(in, filePath.getFileName().toString(), list);
+        } catch (IOException ex) {
+            return -1;
+        }
+    }
+
+    @Override
+    public int load(InputStream in, String name, List<JaTape> list) {
+        String inner = name.toLowerCase(Locale.ROOT).endsWith(".gz") ? name.substring(0, name.length()-3) : name;
+        try {
+            return JatmFileFormats.load(new GZIPInputStream(in), inner, -1, list);
+        } catch (IOException ex) {
+            return -1;
+        }
+    }
+
+    @Override
+    public int save(Path filePath, List<JaTape> list, int[] selection) {
+        return -1; // Load only
+    }
+}
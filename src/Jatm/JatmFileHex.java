@@ -26,8 +26,11 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.List;
 
@@ -41,20 +44,59 @@ public class JatmFileHex extends JatmFileBin {
         description = "Intel Hex files (*.hex)";        
     }
 
+    @Override
+    public int sniff(byte[] head, long size) {
+        int i = 0;
+        while(i < head.length && Character.isWhitespace(head[i])) {
+            i++; // skip leading blank lines
+        }
+        if(i >= head.length || head[i] != ':') {
+            return 0; // no record start mark
+        }
+        int count = 0; // record bytes
+        int sum = 0;   // record checksum
+        int recordLength = 0;
+        for(i++; i+1 < head.length; i += 2) {
+            int hi = Character.digit(head[i], 16);
+            int lo = Character.digit(head[i+1], 16);
+            if(hi < 0 || lo < 0) {
+                break; // end of hex digits
+            }
+            if(count == 0) {
+                recordLength = (hi << 4) + lo;
+            }
+            sum += (hi << 4) + lo;
+            count++;
+        }
+        if(count == recordLength + 5 && (sum & 0xFF) == 0) {
+            return 90; // a complete record, with a good checksum
+        }
+        return (count > 0) ? 40 : 0;
+    }
+
     @Override
     public int load(Path filePath, List<JaTape> list) {
-        String line;
-        int recordLength;
-        int address;
-        int startAddress = -1;
-        int dataIndex = 0;
-        byte[] buf = new byte[64*1024]; // max 64k bytes
         BufferedReader file;
         try {
             file = new BufferedReader(new FileReader(filePath.toString()));
         } catch (FileNotFoundException ex) {
             return -1;
         }
+        return load(file, filePath.getFileName().toString(), list);
+    }
+
+    @Override
+    public int load(InputStream in, String name, List<JaTape> list) {
+        return load(new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII)), name, list);
+    }
+
+    private int load(BufferedReader file, String name, List<JaTape> list) {
+        String line;
+        int recordLength;
+        int address;
+        int startAddress = -1;
+        int dataIndex = 0;
+        byte[] buf = new byte[64*1024]; // max 64k bytes
         Boolean end = false;
         try {
             while(!end && (line = file.readLine()) != null) {
@@ -79,7 +121,7 @@ public class JatmFileHex extends JatmFileBin {
         }
         byte[] data = new byte[dataIndex];
         System.arraycopy(buf, 0, data, 0, dataIndex);
-        list.add( bytTape(startAddress, data, filePath.getFileName().toString()) );
+        list.add( bytTape(startAddress, data, name) );
         return 1;
     }
 
@@ -22,6 +22,7 @@
 package Jatm;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
@@ -35,10 +36,30 @@ public class JatmFileJac extends JatmFile {
         extension = "jac";
         description = "Jupiter Ace files (*.jac)";
     }
+
+    @Override
+    public int sniff(byte[] head, long size) {
+        if(head.length <= JaTape.HEADER_LENGTH
+                || head[0] != JaTapeBlock.HEADER_BLOCK
+                || (head[JaTape.FILE_TYPE] != JaTape.DICT_FILE
+                    && head[JaTape.FILE_TYPE] != JaTape.BYT_FILE)) {
+            return 0; // no header block
+        }
+        if(head[JaTape.HEADER_LENGTH] != JaTapeBlock.DATA_BLOCK) {
+            return 10; // no data block
+        }
+        if(size < 0) {
+            return 60; // unknown size, as in compressed streams
+        }
+        int length = getWord(head, JaTape.LENGTH);
+        if(size != JaTape.HEADER_LENGTH + length + 2) {
+            return 10; // data block does not match header
+        }
+        return 90;
+    }
     
     @Override
     public int load(Path filePath, List<JaTape> list) {
-        int fileCount = 0;
         byte[] buf;
         try {    // Load whole file to a buffer
             buf = Files.readAllBytes(filePath);
@@ -46,6 +67,20 @@ public class JatmFileJac extends JatmFile {
             return -1;
         }
 
+        return load(buf, list);
+    }
+
+    @Override
+    public int load(InputStream in, String name, List<JaTape> list) {
+        try {
+            return load(readAll(in), list);
+        } catch (IOException ex) {
+            return -1;
+        }
+    }
+
+    private int load(byte[] buf, List<JaTape> list) {
+        int fileCount = 0;
         if(buf == null) {   // Proceed only if data exist
             return -1;
         }
@@ -0,0 +1,91 @@
+/*
+ * JatmFileJtl - Compressed tape library file format for Jatm
+ *
+ * This file is part of JAtm - The Jupiter Ace tape manager.
+ *
+ * JAtm is a tool to manage Jupiter Ace tape files in several formats.
+ * Copyright (C) 2015  Ricardo Fernandes Lopes
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package Jatm;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * .JTL compressed tape library format for JAtm.
+ * See JatmLibraryArchive for the file layout
+ * @author Ricardo F. Lopes
+ */
+public class JatmFileJtl extends JatmFile {
+
+    public JatmFileJtl() {
+        extension = "jtl";
+        description = "JAtm tape libraries (*.jtl)";
+        multiTape = true;
+    }
+
+    @Override
+    public int sniff(byte[] head, long size) {
+        return startsWith(head, JatmLibraryArchive.SIGNATURE) ? 100 : 0;
+    }
+
+    @Override
+    public int load(Path filePath, List<JaTape> list) {
+        JatmLibraryArchive archive = new JatmLibraryArchive(); // Read index
+        if(archive.open(filePath)) {
+            return -1;
+        }
+        int size = archive.size();
+        int tapeCount = 0;
+        for(int i = 0; i < size; i++) {
+            JaTape tape = archive.get(i);
+            if(tape != null) { // skip damaged tapes
+                list.add(tape);
+                tapeCount++;
+            }
+        }
+        archive.close();
+        return (tapeCount == 0 && size > 0) ? -1 : tapeCount; // all damaged: error
+    }
+
+    /**
+     * Open a JTL file reading its index only. Tape name, type, address,
+     * length, CRC status and hash are available from the index; tapes
+     * are decompressed when first accessed, null if damaged.
+     * Close the archive when done
+     * @param filePath JTL file
+     * @return read only tape list, or null if an error occur
+     */
+    @Override
+    public JatmLibraryArchive open(Path filePath) {
+        JatmLibraryArchive archive = new JatmLibraryArchive();
+        if(archive.open(filePath)) {
+            return null;
+        }
+        return archive;
+    }
+
+    @Override
+    public int save(Path filePath, List<JaTape> list, int[] selection) {
+        if(selection.length <= 0) {
+            return -1;  // Error: No selection
+        }
+        if(JatmLibraryArchive.write(filePath, list, selection)) {
+            return -1;  // Error writing file
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * JatmFileLoader - Concurrent loading of many tape files for Jatm
+ *
+ * This file is part of JAtm - The Jupiter Ace tape manager.
+ *
+ * JAtm is a tool to manage Jupiter Ace tape files in several formats.
+ * Copyright (C) 2015  Ricardo Fernandes Lopes
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package Jatm;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads many tape files on a fixed number of threads.
+ * Each file format is detected from its contents. Results are reported in
+ * the files order, and only a few files ahead are kept in memory.
+ * A file load error does not stop the other files.
+ * Other per file work can be run the same way with process().
+ * @author Ricardo F. Lopes
+ */
+public class JatmFileLoader {
+    // Set on loading threads, so formats do not start threads of their own
+    private static final ThreadLocal<Boolean> WORKER = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    private final int threads;
+
+    /**
+     * Receives each loaded file, in the files order
+     */
+    public interface Listener {
+        /**
+         * @param index file position in the files list
+         * @param file loaded file
+         * @param tapes tapes found in file, may be partial on errors
+         * @param result file format load result, zero or less on errors
+         */
+        void loaded(int index, Path file, List<JaTape> tapes, int result);
+    }
+
+    /**
+     * Works on one file on a loading thread
+     * @param <T> work result
+     */
+    public interface Task<T> {
+        /**
+         * @param file file to work on
+         * @param format file format detected from its contents
+         * @return work result
+         */
+        T run(Path file, JatmFile format);
+    }
+
+    /**
+     * Receives each file work result, in the files order
+     * @param <T> work result
+     */
+    public interface Receiver<T> {
+        /**
+         * @param index file position in the files list
+         * @param file file worked on
+         * @param result work result, null if the task failed
+         */
+        void received(int index, Path file, T result);
+    }
+
+    /**
+     * Constructor: one thread per processor
+     */
+    public JatmFileLoader() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor
+     * @param threads number of files loaded at the same time
+     */
+    public JatmFileLoader(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Load files, reporting each one to the listener on the calling thread
+     * @param files files to load
+     * @param listener receives the files in order
+     * @return true if interrupted before all files were loaded
+     */
+    public boolean load(List<Path> files, Listener listener) {
+        return process(files, JatmFileLoader::loadFile, (index, file, loaded) -> {
+            if(loaded == null) {
+                loaded = new FileResult(new ArrayList<>(), -1); // loader failure
+            }
+            listener.loaded(index, file, loaded.tapes, loaded.result);
+        });
+    }
+
+    /**
+     * Run a task on each file on the loading threads, reporting the
+     * results to the receiver on the calling thread. Only a few results
+     * ahead of the next one reported are kept
+     * @param <T> work result
+     * @param files files to work on
+     * @param task work done on each file
+     * @param receiver receives the results in files order
+     * @return true if interrupted before all files were done
+     */
+    public <T> boolean process(List<Path> files, Task<T> task, Receiver<T> receiver) {
+        int workers = Math.min(threads, Math.max(1, files.size()));
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        Deque<Future<T>> pending = new ArrayDeque<>(); // working window
+        int next = 0; // next file to start
+        int done = 0; // next file to report
+        try {
+            while(done < files.size()) {
+                // keep at most two files per worker done ahead
+                while(next < files.size() && pending.size() < 2*workers) {
+                    final Path file = files.get(next++);
+                    pending.add(pool.submit(() -> {
+                        WORKER.set(Boolean.TRUE);
+                        return task.run(file, JatmFileFormats.detect(file));
+                    }));
+                }
+                T result;
+                try {
+                    result = pending.remove().get(); // oldest first
+                } catch (ExecutionException ex) {
+                    result = null; // task failure
+                }
+                receiver.received(done, files.get(done), result);
+                done++;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return true; // Cancelled
+        } finally {
+            pool.shutdownNow(); // stops work still running if cancelled
+        }
+        return false;
+    }
+
+    /**
+     * Check if the current thread is a loading thread
+     * @return true if running on a file loader thread
+     */
+    static boolean isWorker() {
+        return WORKER.get();
+    }
+
+    private static FileResult loadFile(Path file, JatmFile format) {
+        List<JaTape> tapes = new ArrayList<>();
+        int result = format.load(file, tapes);
+        return new FileResult(tapes, result);
+    }
+
+    /**
+     * A file load outcome
+     */
+    private static class FileResult {
+        final List<JaTape> tapes;
+        final int result;
+
+        FileResult(List<JaTape> tapes, int result) {
+            this.tapes = tapes;
+            this.result = result;
+        }
+    }
+}
@@ -26,6 +26,8 @@ import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
@@ -38,49 +40,72 @@ public class JatmFileTap extends JatmFile {
     public JatmFileTap() {
         extension = "tap";
         description = "TAP files (*.tap)";
+        multiTape = true;
+    }
+
+    @Override
+    public int sniff(byte[] head, long size) {
+        int headerLength = JaTape.HEADER_LENGTH - 1; // no block type byte in TAP
+        if(head.length < 3 || getWord(head, 0) != headerLength) {
+            return 0; // no header record
+        }
+        if(head[2] != JaTape.DICT_FILE && head[2] != JaTape.BYT_FILE) {
+            return 10; // unknown file type
+        }
+        int dataIndex = 2 + headerLength;
+        if(head.length < dataIndex + 2) {
+            return 30; // truncated
+        }
+        int length = getWord(head, 2 + JaTape.LENGTH - 1); // header file length
+        if(getWord(head, dataIndex) != length + 1) {
+            return 30; // data record does not match header
+        }
+        return 90;
     }
     
     @Override
     public int load(Path filePath, List<JaTape> list) {
-        byte[] buffer; 
-        try {       // Load whole file to a buffer
-            buffer = Files.readAllBytes(filePath);
+        JatmTapArchive archive = new JatmTapArchive(); // Index file contents
+        try {    // Tapes are all copied: read to heap, no mapping left open
+            archive.open(ByteBuffer.wrap(Files.readAllBytes(filePath)));
         } catch (IOException ex) {
             return -1;
         }
+        int tapeCount = archive.size(); // Jupiter Ace tape files found
+        list.addAll(archive);           // Add them to the list of Jupiter Ace Files
+        archive.close();
+        return tapeCount;
+    }
 
-        if(buffer == null) {   // Proceed only if data exist
+    @Override
+    public int load(InputStream in, String name, List<JaTape> list) {
+        JatmTapArchive archive = new JatmTapArchive();
+        try {
+            archive.open(ByteBuffer.wrap(readAll(in)));
+        } catch (IOException ex) {
             return -1;
         }
-
-        int tapeCount = 0; // Count number of Jupiter Ace tape files found            
-        int index = 0;     // buffer index
-        int blockLength;   // current block length
-        do {
-            // Load the Header Block
-            blockLength = getWord(buffer, index); // Header TAP block length
-            byte[] header = new byte[blockLength+1];
-            header[0] = JaTapeBlock.HEADER_BLOCK; // Fix Header block type            
-            System.arraycopy(buffer, index+2, header, 1, blockLength);            
-
-            index += blockLength + 2; // advance buffer pointer to next block
-            
-            // Load the Data Block
-            blockLength = getWord(buffer, index); // Data TAP block length
-            byte[] data = new byte[blockLength+1];
-            data[0] = JaTapeBlock.DATA_BLOCK; // Fix Data block type           
-            System.arraycopy(buffer, index+2, data, 1, blockLength);
-            
-            index += blockLength + 2; // advance buffer pointer to next block 
-
-            JaTape ja = new JaTape(header, data); // Build a Tape File
-            list.add( ja );    // Add it to the list of Jpupiter Ace Files
-            tapeCount++;
-        } while(index < buffer.length);
-
+        int tapeCount = archive.size();
+        list.addAll(archive);
+        archive.close();
         return tapeCount;
     }
 
+    /**
+     * Open a TAP file without loading it. Tapes are built on first access,
+     * suited to browsing very large concatenated TAP archives
+     * @param filePath TAP file
+     * @return read only tape list, or null if an error occur or no tape found
+     */
+    @Override
+    public JatmTapArchive open(Path filePath) {
+        JatmTapArchive archive = new JatmTapArchive();
+        if(archive.open(filePath) || archive.isEmpty()) {
+            return null;
+        }
+        return archive;
+    }
+
     @Override
     public int save(Path filePath, List<JaTape> list, int[] selection) {
         if(selection.length <= 0) {
@@ -0,0 +1,398 @@
+/*
+ * JatmFileTzx - TZX pulse level file format for Jatm
+ *
+ * This file is part of JAtm - The Jupiter Ace tape manager.
+ *
+ * JAtm is a tool to manage Jupiter Ace tape files in several formats.
+ * Copyright (C) 2015  Ricardo Fernandes Lopes
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package Jatm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * .TZX tape file format for JAtm.
+ * Each tape block is saved as a pure tone pilot, a sync pulse sequence,
+ * a generalized data block carrying the asymmetric Ace bit cycles and an
+ * end mark pulse sequence. A pause block stands for the leading silence.
+ * TZX timings are 3.5 MHz T-states, so Ace pulse widths are scaled.
+ * @author Ricardo F. Lopes
+ */
+public class JatmFileTzx extends JatmFile {
+    private static final byte[] SIGNATURE =
+            "ZXTape!\u001A".getBytes(StandardCharsets.US_ASCII);
+    private static final int MAJOR = 1;  // TZX version 1.20
+    private static final int MINOR = 20;
+
+    // TZX Block IDs
+    private static final int STANDARD_DATA = 0x10;
+    private static final int TURBO_DATA    = 0x11;
+    private static final int PURE_TONE     = 0x12;
+    private static final int PULSE_SEQ     = 0x13;
+    private static final int PURE_DATA     = 0x14;
+    private static final int DIRECT_REC    = 0x15;
+    private static final int CSW_REC       = 0x18;
+    private static final int GENERALIZED   = 0x19;
+    private static final int PAUSE         = 0x20;
+    private static final int GROUP_START   = 0x21;
+    private static final int GROUP_END     = 0x22;
+    private static final int JUMP          = 0x23;
+    private static final int LOOP_START    = 0x24;
+    private static final int LOOP_END      = 0x25;
+    private static final int CALL_SEQ      = 0x26;
+    private static final int RETURN        = 0x27;
+    private static final int SELECT        = 0x28;
+    private static final int TEXT          = 0x30;
+    private static final int MESSAGE       = 0x31;
+    private static final int ARCHIVE_INFO  = 0x32;
+    private static final int HARDWARE      = 0x33;
+    private static final int CUSTOM_INFO   = 0x35;
+    private static final int GLUE          = 0x5A;
+
+    // Ace Pulse Lengths in Z80 cycles, as used by JatmWaveSave
+    private static final int ACE_CLOCK = 3250000; // Ace CPU Clock Frequency
+    private static final int TZX_CLOCK = 3500000; // TZX timing reference
+    private static final int PILOT_CYCLES = 512;  // Pilot Tone Cycles
+    private static final int PILOT_PULSE_T    = 2011;
+    private static final int SYNC_PULSE_HI_T  = 601;
+    private static final int SYNC_PULSE_LO_T  = 791;
+    private static final int BIT0_PULSE_HI_T  = 795;
+    private static final int BIT0_PULSE_LO_T  = 801;
+    private static final int BIT1_PULSE_HI_T  = 1585;
+    private static final int BIT1_PULSE_LO_T  = 1591;
+    private static final int END_MARK_PULSE_HI_T = 903;
+    private static final int END_MARK_PULSE_LO_T = 4187;
+    private static final int PAUSE_MS = 4000;     // Leading silence
+
+    public JatmFileTzx() {
+        extension = "tzx";
+        description = "TZX files (*.tzx)";
+        multiTape = true;
+    }
+
+    @Override
+    public int sniff(byte[] head, long size) {
+        return startsWith(head, SIGNATURE) ? 100 : 0;
+    }
+
+    @Override
+    public int load(Path filePath, List<JaTape> list) {
+        byte[] buf;
+        try {    // Load whole file to a buffer
+            buf = Files.readAllBytes(filePath);
+        } catch (IOException ex) {
+            return -1;
+        }
+
+        return load(buf, list);
+    }
+
+    @Override
+    public int load(InputStream in, String name, List<JaTape> list) {
+        try {
+            return load(readAll(in), list);
+        } catch (IOException ex) {
+            return -1;
+        }
+    }
+
+    private int load(byte[] buf, List<JaTape> list) {
+        if(buf.length < 10
+                || !Arrays.equals(Arrays.copyOf(buf, SIGNATURE.length), SIGNATURE)) {
+            return -1; // Not a TZX file
+        }
+
+        // Collect data carrying blocks
+        List<byte[]> blocks = new ArrayList<>();
+        try {
+            int index = 10; // skip TZX header
+            while(index < buf.length) {
+                long next = readBlock(buf, index, blocks);
+                if(next <= index || next > buf.length) {
+                    break; // bad length or truncated block: keep what was decoded
+                }
+                index = (int) next;
+            }
+        } catch (ArrayIndexOutOfBoundsException ex) {
+            // truncated last block: keep what was decoded
+        }
+
+        // Pair header and data blocks into tapes
+        int tapeCount = 0;
+        for(int i = 0; i+1 < blocks.size(); i++) {
+            byte[] header = blocks.get(i);
+            byte[] data = blocks.get(i+1);
+            if(header.length == JaTape.HEADER_LENGTH
+                    && header[0] == JaTapeBlock.HEADER_BLOCK
+                    && data.length > 0 && data[0] == JaTapeBlock.DATA_BLOCK) {
+                list.add( new JaTape(header, data) );
+                tapeCount++;
+                i++; // data block consumed
+            }
+        }
+        return tapeCount;
+    }
+
+    @Override
+    public int save(Path filePath, List<JaTape> list, int[] selection) {
+        if(selection.length <= 0) {
+            return -1;  // Error: No tape selection
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(SIGNATURE, 0, SIGNATURE.length);
+        out.write(MAJOR);
+        out.write(MINOR);
+
+        for(int i = 0; i < selection.length; i++) {
+            JaTape tape = list.get(selection[i]);
+            writePause(out, PAUSE_MS);                          // Leading silence
+            writeBlock(out, tape.getHeaderBlock(), 8*PILOT_CYCLES); // Header
+            writeBlock(out, tape.getDataBlock(), PILOT_CYCLES);     // Data
+        }
+        writePause(out, PAUSE_MS);                              // Trailing silence
+
+        try {
+            Files.write(filePath, out.toByteArray());
+        } catch (IOException ex) {
+            return -1; // Error writing to file
+        }
+        return 1;   // One file saved
+    }
+
+    // ================= Save =======================
+    /**
+     * Write the blocks of a tape block
+     * @param out TZX output
+     * @param block tape block bytes, including block type and CRC
+     * @param pilotCycles number of pilot tone cycles
+     */
+    private void writeBlock(ByteArrayOutputStream out, byte[] block, int pilotCycles) {
+        // Pilot tone
+        out.write(PURE_TONE);
+        writeWord(out, tzx(PILOT_PULSE_T));
+        writeWord(out, 2*pilotCycles);
+
+        // Sync pulses
+        writePulses(out, tzx(SYNC_PULSE_HI_T), tzx(SYNC_PULSE_LO_T));
+
+        // Data bits, two pulse symbols: 0 and 1
+        out.write(GENERALIZED);
+        writeLong(out, 24 + block.length); // block length
+        writeWord(out, 0);                 // no pause after block
+        writeLong(out, 0);                 // TOTP: no pilot/sync symbols
+        out.write(0);                      // NPP
+        out.write(0);                      // ASP
+        writeLong(out, 8L*block.length);   // TOTD: one symbol per bit
+        out.write(2);                      // NPD: pulses per symbol
+        out.write(2);                      // ASD: symbols in alphabet
+        out.write(0);                      // bit 0: edge, hi, lo
+        writeWord(out, tzx(BIT0_PULSE_HI_T));
+        writeWord(out, tzx(BIT0_PULSE_LO_T));
+        out.write(0);                      // bit 1: edge, hi, lo
+        writeWord(out, tzx(BIT1_PULSE_HI_T));
+        writeWord(out, tzx(BIT1_PULSE_LO_T));
+        out.write(block, 0, block.length); // one bit per symbol, hi bit first
+
+        // End mark
+        writePulses(out, tzx(END_MARK_PULSE_HI_T), tzx(END_MARK_PULSE_LO_T));
+    }
+
+    private void writePulses(ByteArrayOutputStream out, int hi, int lo) {
+        out.write(PULSE_SEQ);
+        out.write(2);
+        writeWord(out, hi);
+        writeWord(out, lo);
+    }
+
+    private void writePause(ByteArrayOutputStream out, int ms) {
+        out.write(PAUSE);
+        writeWord(out, ms);
+    }
+
+    private void writeWord(ByteArrayOutputStream out, int word) {
+        out.write(loByte(word));
+        out.write(hiByte(word));
+    }
+
+    private void writeLong(ByteArrayOutputStream out, long value) {
+        for(int i = 0; i < 4; i++) { // little endian
+            out.write((int)(value >> (8*i)) & 0xFF);
+        }
+    }
+
+    /**
+     * Convert Ace Z80 cycles to TZX T-states
+     * @param aceCycles pulse width in Ace cycles
+     * @return pulse width in 3.5 MHz T-states
+     */
+    private int tzx(int aceCycles) {
+        return (int)(((long)aceCycles * TZX_CLOCK + ACE_CLOCK/2) / ACE_CLOCK);
+    }
+
+    // ================= Load =======================
+    /**
+     * Decode a TZX block, collecting data bytes from data blocks
+     * @param buf TZX file contents
+     * @param index block ID position
+     * @param blocks collected data blocks
+     * @return next block ID position, -1 if the block runs past the end
+     */
+    private long readBlock(byte[] buf, int index, List<byte[]> blocks) {
+        int id = buf[index++] & 0xFF;
+        long end;
+        switch(id) {
+            case STANDARD_DATA: // pause, length, data
+                end = index + 4L + getWord(buf, index+2);
+                return readData(buf, index+4, end, blocks);
+            case TURBO_DATA:    // 15 bytes of timing, length, data
+                end = index + 18L + get3Bytes(buf, index+15);
+                return readData(buf, index+18, end, blocks);
+            case PURE_DATA:     // 7 bytes of timing, length, data
+                end = index + 10L + get3Bytes(buf, index+7);
+                return readData(buf, index+10, end, blocks);
+            case GENERALIZED:
+                end = index + 4L + getLong(buf, index);
+                if(end > buf.length) {
+                    return -1; // truncated block
+                }
+                byte[] data = readGeneralized(buf, index+4, (int) end);
+                if(data != null) {
+                    blocks.add(data);
+                }
+                return end;
+            case PURE_TONE:     return index + 4;
+            case PULSE_SEQ:     return index + 1 + 2*(buf[index] & 0xFF);
+            case DIRECT_REC:    return index + 8 + get3Bytes(buf, index+5);
+            case CSW_REC:       return index + 4 + getLong(buf, index);
+            case PAUSE:
+            case JUMP:
+            case LOOP_START:    return index + 2;
+            case GROUP_START:
+            case TEXT:          return index + 1 + (buf[index] & 0xFF);
+            case MESSAGE:       return index + 2 + (buf[index+1] & 0xFF);
+            case GROUP_END:
+            case LOOP_END:
+            case RETURN:        return index;
+            case CALL_SEQ:      return index + 2 + 2*getWord(buf, index);
+            case SELECT:
+            case ARCHIVE_INFO:  return index + 2 + getWord(buf, index);
+            case HARDWARE:      return index + 1 + 3*(buf[index] & 0xFF);
+            case CUSTOM_INFO:   return index + 20 + getLong(buf, index+16);
+            case GLUE:          return index + 9;
+            default:            // Extension rule: a 4 byte length follows the ID
+                return index + 4 + getLong(buf, index);
+        }
+    }
+
+    /**
+     * Collect the data bytes of a data block
+     * @param buf TZX file contents
+     * @param index data position
+     * @param end block end position
+     * @param blocks collected data blocks
+     * @return next block ID position, -1 if the block runs past the end
+     */
+    private long readData(byte[] buf, int index, long end, List<byte[]> blocks) {
+        if(end > buf.length) {
+            return -1; // truncated block
+        }
+        blocks.add(Arrays.copyOfRange(buf, index, (int) end));
+        return end;
+    }
+
+    /**
+     * Decode the data stream of a generalized data block.
+     * Symbols are told apart by duration: longer symbols are 1 bits
+     * @param buf TZX file contents
+     * @param index block body position, after the length field
+     * @param end block end position
+     * @return data bytes or null if block has no data stream or it
+     * does not fit in the block
+     */
+    private byte[] readGeneralized(byte[] buf, int index, int end) {
+        long totp = getLong(buf, index+2);
+        int npp = buf[index+6] & 0xFF;
+        int asp = buf[index+7] & 0xFF;
+        long totd = getLong(buf, index+8);
+        int npd = buf[index+12] & 0xFF;
+        int asd = buf[index+13] & 0xFF;
+        asp = (asp == 0) ? 256 : asp;
+        asd = (asd == 0) ? 256 : asd;
+        long position = index + 14;
+
+        if(totp > 0) { // skip pilot/sync symbols and their stream
+            position += asp*(1 + 2*npp);
+            position += 3*totp;
+        }
+        if(totd == 0) {
+            return null;
+        }
+
+        // Symbol table and data stream must fit in the block
+        int nb = 32 - Integer.numberOfLeadingZeros(asd - 1);
+        nb = (nb == 0) ? 1 : nb;
+        if(position + asd*(1 + 2*npd) + (totd*nb + 7)/8 > end) {
+            return null;
+        }
+        index = (int) position;
+
+        // Symbol durations
+        int[] duration = new int[asd];
+        int shortest = Integer.MAX_VALUE;
+        int longest = 0;
+        for(int s = 0; s < asd; s++) {
+            index++; // symbol flags
+            for(int p = 0; p < npd; p++) {
+                duration[s] += getWord(buf, index);
+                index += 2;
+            }
+            shortest = Math.min(shortest, duration[s]);
+            longest = Math.max(longest, duration[s]);
+        }
+        int threshold = (shortest + longest) / 2;
+
+        // Data stream: nb bits per symbol, hi bit first
+        byte[] data = new byte[(int)(totd / 8)];
+        for(int i = 0; i < data.length*8; i++) {
+            int symbol = 0;
+            for(int b = 0; b < nb; b++) {
+                long bit = (long) i*nb + b;
+                symbol = (symbol << 1) | ((buf[index + (int)(bit/8)] >> (7 - (int)(bit%8))) & 1);
+            }
+            if(symbol < asd && duration[symbol] > threshold) {
+                data[i/8] |= (byte)(0x80 >> (i%8));
+            }
+        }
+        return data;
+    }
+
+    private int get3Bytes(byte[] b, int index) {
+        return getWord(b, index) | ((b[index+2] & 0xFF) << 16);
+    }
+
+    private long getLong(byte[] b, int index) { // unsigned
+        return getWord(b, index) | ((long) getWord(b, index+2) << 16);
+    }
+}
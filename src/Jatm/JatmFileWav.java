@@ -20,29 +20,60 @@
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 package Jatm;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * .WAV Wave file format for JAtm
  * @author Ricardo
  */
 public final class JatmFileWav extends JatmFile {
+    private static final byte[] RIFF = { 'R', 'I', 'F', 'F' };
 
     public JatmFileWav() {
         extension = "wav";
         description = "Wav files (*.wav)";
+        multiTape = true;
     }
 
     @Override
-    public int load(Path filePath, List<JaTape> list) {
-        int tapeCount = 0; // Count number of Jupiter Ace tape files found
+    public int sniff(byte[] head, long size) {
+        if(head.length >= 12 && startsWith(head, RIFF)
+                && head[8] == 'W' && head[9] == 'A' && head[10] == 'V' && head[11] == 'E') {
+            return 100;
+        }
+        return 0;
+    }
 
+    @Override
+    public int load(Path filePath, List<JaTape> list) {
         // Open WAV file for reading
         JatmWaveLoad audioIn = new JatmWaveLoad(); // Load Audio
         if (audioIn.open(filePath.toString())) {
             return 0; // an error occured when opening file
         }
+        return load(audioIn, list);
+    }
+
+    @Override
+    public int load(InputStream in, String name, List<JaTape> list) {
+        JatmWaveLoad audioIn = new JatmWaveLoad(); // Load Audio
+        if (audioIn.open(in)) {
+            return 0; // an error occured when opening stream
+        }
+        return load(audioIn, list);
+    }
+
+    private int load(JatmWaveLoad audioIn, List<JaTape> list) {
+        int tapeCount = 0; // Count number of Jupiter Ace tape files found
 
         // Loop loading tapes from WAV file until EOF
         JaTape tape;
@@ -71,15 +102,52 @@ public final class JatmFileWav extends JatmFile {
             return -1; // Error writing WAV file
         }
 
-        // Save each selected tape
-        JaTape tape;
-        for(int i=0; i < selection.length; i++) {
-            tape = list.get(selection[i]);  // Get next tape to save
-            audioOut.save(tape);
+        // Render selected tapes concurrently, write segments in selection order
+        int workers = Math.min(selection.length, Runtime.getRuntime().availableProcessors());
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        Deque<Future<byte[]>> pending = new ArrayDeque<>(); // rendering window
+        int next = 0; // next selection to render
+        try {
+            while(next < selection.length || !pending.isEmpty()) {
+                // keep at most one segment per worker in memory
+                while(next < selection.length && pending.size() < workers) {
+                    final JaTape tape = list.get(selection[next++]);
+                    pending.add(pool.submit(() -> audioOut.render(tape)));
+                }
+                audioOut.write(pending.remove().get()); // oldest first
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            audioOut.close();
+            return -1; // Cancelled
+        } catch (ExecutionException ex) {
+            audioOut.close();
+            return -1; // Error rendering WAV file
+        } finally {
+            pool.shutdownNow();
         }
 
         // Close WAV file
-        audioOut.close();
+        if(audioOut.close()) {
+            return -1; // Error writing WAV file
+        }
+        return 1;   // One WAV file saved
+    }
+
+    /**
+     * Stream a WAV file with the selected tapes, no seekable file needed
+     * @param out destination stream, left open
+     * @param list tape list
+     * @param selection indexes of tapes to save
+     * @return 1 if saved, -1 if an error occur
+     */
+    public int save(OutputStream out, List<JaTape> list, int[] selection) {
+        if(selection.length <= 0) {
+            return -1;  // Error: No tape selection
+        }
+        if( new JatmWaveSave().save(out, list, selection) ) {
+            return -1; // Error writing WAV stream
+        }
         return 1;   // One WAV file saved
     }
 }
@@ -0,0 +1,217 @@
+/*
+ * JatmFileZip - ZIP archive of tape files for Jatm
+ *
+ * This file is part of JAtm - The Jupiter Ace tape manager.
+ *
+ * JAtm is a tool to manage Jupiter Ace tape files in several formats.
+ * Copyright (C) 2015  Ricardo Fernandes Lopes
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package Jatm;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * .ZIP archive of tape files, load only.
+ * Each entry is decoded straight from the archive, in any known format.
+ * Entries of a zip file are decoded in parallel, tapes are added in
+ * entry order. On a file loader thread, already one of several loading
+ * in parallel, entries are decoded in turn on that thread.
+ * @author Ricardo F. Lopes
+ */
+public class JatmFileZip extends JatmFile {
+    private static final byte[] SIGNATURE = { 'P', 'K', 3, 4 };
+    private static final byte[] EMPTY_SIGNATURE = { 'P', 'K', 5, 6 };
+
+    public JatmFileZip() {
+        extension = "zip";
+        description = "ZIP archives (*.zip)";
+        multiTape = true;
+        loadOnly = true;
+    }
+
+    @Override
+    public int sniff(byte[] head, long size) {
+        return (startsWith(head, SIGNATURE) || startsWith(head, EMPTY_SIGNATURE)) ? 100 : 0;
+    }
+
+    @Override
+    public int load(Path filePath, List<JaTape> list) {
+        try (ZipFile zip = new ZipFile(filePath.toFile())) {
+            List<ZipEntry> entries = new ArrayList<>();
+            Enumeration<? extends ZipEntry> all = zip.entries();
+            while(all.hasMoreElements()) {
+                ZipEntry entry = all.nextElement();
+                if(!entry.isDirectory()) {
+                    entries.add(entry);
+                }
+            }
+            return loadEntries(zip, entries, list);
+        } catch (IOException ex) {
+            return -1;
+        }
+    }
+
+    @Override
+    public int load(InputStream in, String name, List<JaTape> list) {
+        int tapeCount = 0;
+        boolean failed = false;
+        ZipInputStream zip = new ZipInputStream(in);
+        try {
+            ZipEntry entry;
+            while((entry = zip.getNextEntry()) != null) {
+                if(!entry.isDirectory()) {
+                    int result = JatmFileFormats.load(new EntryStream(zip),
+                            entryName(entry), entry.getSize(), list);
+                    failed |= (result < 0);
+                    tapeCount += Math.max(result, 0);
+                }
+            }
+        } catch (IOException ex) {
+            failed = true;
+        }
+        return (failed && tapeCount == 0) ? -1 : tapeCount;
+    }
+
+    @Override
+    public int save(Path filePath, List<JaTape> list, int[] selection) {
+        return -1; // Load only
+    }
+
+    // ================= PRIVATE =======================
+    /**
+     * Load entries, each from its own stream. Only a few entries ahead
+     * of the next one added are kept decoded
+     */
+    private static int loadEntries(ZipFile zip, List<ZipEntry> entries, List<JaTape> list) {
+        if(JatmFileLoader.isWorker()) {
+            return loadEntriesInTurn(zip, entries, list);
+        }
+        int threads = Math.min(entries.size(), Runtime.getRuntime().availableProcessors());
+        threads = Math.max(threads, 1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Deque<Future<List<JaTape>>> pending = new ArrayDeque<>(); // decoding window
+        int next = 0; // next entry to start
+        int tapeCount = 0;
+        boolean failed = false;
+        try {
+            while(next < entries.size() || !pending.isEmpty()) {
+                // keep at most two entries per thread decoded ahead
+                while(next < entries.size() && pending.size() < 2*threads) {
+                    final ZipEntry entry = entries.get(next++);
+                    pending.add(pool.submit(() -> loadEntry(zip, entry)));
+                }
+                List<JaTape> tapes;
+                try {
+                    tapes = pending.remove().get(); // oldest first
+                } catch (ExecutionException ex) {
+                    tapes = null; // decoder failure: skip entry
+                }
+                if(tapes == null) {
+                    failed = true;
+                } else {
+                    list.addAll(tapes);
+                    tapeCount += tapes.size();
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return -1; // Cancelled
+        } finally {
+            pool.shutdownNow();
+        }
+        return (failed && tapeCount == 0) ? -1 : tapeCount;
+    }
+
+    /**
+     * Load entries one after the other on the calling thread
+     */
+    private static int loadEntriesInTurn(ZipFile zip, List<ZipEntry> entries, List<JaTape> list) {
+        int tapeCount = 0;
+        boolean failed = false;
+        for (ZipEntry entry : entries) {
+            if(Thread.currentThread().isInterrupted()) {
+                return -1; // Cancelled
+            }
+            List<JaTape> tapes;
+            try {
+                tapes = loadEntry(zip, entry);
+            } catch (RuntimeException ex) {
+                tapes = null; // decoder failure: skip entry
+            }
+            if(tapes == null) {
+                failed = true;
+            } else {
+                list.addAll(tapes);
+                tapeCount += tapes.size();
+            }
+        }
+        return (failed && tapeCount == 0) ? -1 : tapeCount;
+    }
+
+    /**
+     * Load an entry tapes
+     * @return tapes found, null on error
+     */
+    private static List<JaTape> loadEntry(ZipFile zip, ZipEntry entry) {
+        List<JaTape> tapes = new ArrayList<>();
+        try (InputStream in = zip.getInputStream(entry)) {
+            if(JatmFileFormats.load(in, entryName(entry), entry.getSize(), tapes) < 0) {
+                return null;
+            }
+        } catch (IOException ex) {
+            return null;
+        }
+        return tapes;
+    }
+
+    /**
+     * Entry file name, without folders
+     */
+    private static String entryName(ZipEntry entry) {
+        String name = entry.getName();
+        return name.substring(name.lastIndexOf('/')+1);
+    }
+
+    /**
+     * Current entry of a zip stream. Closing it leaves the zip stream open
+     * for the next entries
+     */
+    private static class EntryStream extends FilterInputStream {
+        EntryStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() {
+            // the zip stream is closed by its owner
+        }
+    }
+}
@@ -0,0 +1,375 @@
+/*
+ * JatmLibraryArchive - Compressed container of many tapes for Jatm
+ *
+ * This file is part of JAtm - The Jupiter Ace tape manager.
+ *
+ * JAtm is a tool to manage Jupiter Ace tape files in several formats.
+ * Copyright (C) 2015  Ricardo Fernandes Lopes
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package Jatm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Read only list of the tapes in a JTL library container.
+ * A JTL file holds an index of all tapes followed by each tape header
+ * and data blocks, deflate compressed one tape at a time.
+ * Opening reads only the index; a tape is read and decompressed when
+ * first accessed.
+ *
+ * Layout, little endian:
+ *  - signature "JTL" 0x1A, version (2 bytes), tape count (4 bytes)
+ *  - one index entry per tape, ENTRY_LENGTH bytes:
+ *    name (10), file type (1), address (2), length (2), CRC flags (1),
+ *    SHA-1 hash (20), body offset (8), body size (4), blocks size (4)
+ *  - tape bodies
+ * @author Ricardo F. Lopes
+ */
+public class JatmLibraryArchive extends AbstractList<JaTape> implements RandomAccess {
+    public static final byte[] SIGNATURE = { 'J', 'T', 'L', 0x1A };
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 10; // signature, version, count
+    private static final int ENTRY_LENGTH = 52;
+    private static final int HASH_LENGTH = 20;
+    private static final int MAX_BLOCKS_SIZE = JaTape.HEADER_LENGTH + 0x10000 + 2; // largest data block
+    private static final int HEADER_CRC_OK = 0x01; // CRC flags
+    private static final int DATA_CRC_OK   = 0x02;
+
+    // Index entry fields position
+    private static final int NAME        = 0;
+    private static final int TYPE        = 10;
+    private static final int ADDRESS     = 11;
+    private static final int LENGTH      = 13;
+    private static final int FLAGS       = 15;
+    private static final int HASH        = 16;
+    private static final int OFFSET      = 36;
+    private static final int BODY_SIZE   = 44;
+    private static final int BLOCKS_SIZE = 48;
+
+    private FileChannel channel;
+    private ByteBuffer index;    // index entries
+    private int tapeCount;
+    private JaTape[] tapes;      // tapes read so far
+
+    /**
+     * Empty Constructor
+     */
+    public JatmLibraryArchive() {
+        tapes = new JaTape[0];
+    }
+
+    /**
+     * Open a JTL file, reading its index only
+     * @param filePath JTL file
+     * @return true if an error occur
+     */
+    public boolean open(Path filePath) {
+        close();
+        try {
+            channel = FileChannel.open(filePath, StandardOpenOption.READ);
+            ByteBuffer header = read(0, HEADER_LENGTH);
+            byte[] signature = new byte[SIGNATURE.length];
+            header.get(signature);
+            if(!Arrays.equals(signature, SIGNATURE)
+                    || (header.getShort() & 0xFFFF) != VERSION) {
+                close();
+                return true; // Not a JTL file
+            }
+            int count = header.getInt();
+            if(count < 0 || (long) count * ENTRY_LENGTH > channel.size()) {
+                close();
+                return true; // Corrupted
+            }
+            index = read(HEADER_LENGTH, count * ENTRY_LENGTH);
+            tapeCount = count;
+            tapes = new JaTape[count];
+        } catch (IOException ex) {
+            close();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Close the file
+     */
+    public void close() {
+        if(channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                // nothing left to release
+            }
+        }
+        channel = null;
+        index = null;
+        tapeCount = 0;
+        tapes = new JaTape[0];
+    }
+
+    @Override
+    public int size() {
+        return tapeCount;
+    }
+
+    /**
+     * Get a tape, reading it from the file if not read yet
+     * @param i tape index
+     * @return the tape, or null on read error
+     */
+    @Override
+    public JaTape get(int i) {
+        if(i < 0 || i >= tapeCount) {
+            throw new IndexOutOfBoundsException("Tape " + i + " of " + tapeCount);
+        }
+        JaTape tape = tapes[i];
+        if(tape == null) {
+            tape = readTape(i);
+            tapes[i] = tape;
+        }
+        return tape;
+    }
+
+    /**
+     * Get a tape name from the index
+     * @param i tape index
+     * @return tape file name
+     */
+    public String getName(int i) {
+        byte[] name = new byte[10];
+        entry(i, NAME).get(name);
+        return new String(name, StandardCharsets.UTF_8); // as JaTape.getFilename()
+    }
+
+    /**
+     * Check a tape file type from the index
+     * @param i tape index
+     * @return true if a Dict type file
+     */
+    public boolean isDict(int i) {
+        return entry(i, TYPE).get() == JaTape.DICT_FILE;
+    }
+
+    /**
+     * Get a tape base address from the index
+     * @param i tape index
+     * @return header address parameter
+     */
+    public int getAddress(int i) {
+        return entry(i, ADDRESS).getShort() & 0xFFFF;
+    }
+
+    /**
+     * Get a tape length from the index
+     * @param i tape index
+     * @return header length parameter
+     */
+    public int getLength(int i) {
+        return entry(i, LENGTH).getShort() & 0xFFFF;
+    }
+
+    /**
+     * Check a tape CRCs from the index
+     * @param i tape index
+     * @return true if header and data CRCs are ok
+     */
+    public boolean crcOk(int i) {
+        return headerCrcOk(i) && dataCrcOk(i);
+    }
+
+    /**
+     * Check a tape header CRC from the index
+     * @param i tape index
+     * @return true if header CRC is ok
+     */
+    public boolean headerCrcOk(int i) {
+        return (entry(i, FLAGS).get() & HEADER_CRC_OK) != 0;
+    }
+
+    /**
+     * Check a tape data CRC from the index
+     * @param i tape index
+     * @return true if data CRC is ok
+     */
+    public boolean dataCrcOk(int i) {
+        return (entry(i, FLAGS).get() & DATA_CRC_OK) != 0;
+    }
+
+    /**
+     * Get a tape content hash from the index
+     * @param i tape index
+     * @return hash as given by JatmLibraryIndex.hash()
+     */
+    public String getHash(int i) {
+        byte[] hash = new byte[HASH_LENGTH];
+        entry(i, HASH).get(hash);
+        return JatmLibraryIndex.toHex(hash);
+    }
+
+    /**
+     * Write tapes to a JTL file
+     * @param filePath JTL file
+     * @param list tape list
+     * @param selection tapes to write
+     * @return true if an error occur
+     */
+    public static boolean write(Path filePath, List<JaTape> list, int[] selection) {
+        ByteBuffer entries = ByteBuffer.allocate(selection.length * ENTRY_LENGTH)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try (FileChannel out = FileChannel.open(filePath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long offset = HEADER_LENGTH + entries.capacity(); // bodies after index
+            for (int selected : selection) {
+                JaTape tape = list.get(selected);
+                byte[] header = tape.getHeaderBlock();
+                byte[] data = tape.getDataBlock();
+                byte[] blocks = new byte[header.length + data.length];
+                System.arraycopy(header, 0, blocks, 0, header.length);
+                System.arraycopy(data, 0, blocks, header.length, data.length);
+                ByteBuffer body = ByteBuffer.wrap(deflate(deflater, blocks));
+                int bodySize = body.remaining();
+
+                entries.put(header, JaTape.FILE_NAME, 10)
+                       .put(header[JaTape.FILE_TYPE])
+                       .putShort((short) tape.getParameter(JaTape.ADDRESS))
+                       .putShort((short) tape.getParameter(JaTape.LENGTH))
+                       .put((byte) ((tape.headerCrcOk() ? HEADER_CRC_OK : 0)
+                                  | (tape.dataCrcOk() ? DATA_CRC_OK : 0)));
+                entries.put(JatmLibraryIndex.hashBytes(tape))
+                       .putLong(offset)
+                       .putInt(bodySize)
+                       .putInt(blocks.length);
+                write(out, body, offset);
+                offset += bodySize;
+            }
+            ByteBuffer start = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+            start.put(SIGNATURE).putShort((short) VERSION).putInt(selection.length);
+            start.flip();
+            entries.flip();
+            write(out, start, 0);
+            write(out, entries, HEADER_LENGTH);
+        } catch (IOException ex) {
+            return true;
+        } finally {
+            deflater.end();
+        }
+        return false;
+    }
+
+    // ================= PRIVATE =======================
+    /**
+     * Index entry positioned at a field
+     */
+    private ByteBuffer entry(int i, int field) {
+        if(i < 0 || i >= tapeCount) {
+            throw new IndexOutOfBoundsException("Tape " + i + " of " + tapeCount);
+        }
+        ByteBuffer entry = index.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        entry.position(i * ENTRY_LENGTH + field);
+        return entry;
+    }
+
+    /**
+     * Read and decompress a tape body
+     * @return the tape, or null if its entry or body is damaged
+     */
+    private JaTape readTape(int i) {
+        ByteBuffer entry = entry(i, OFFSET);
+        long offset = entry.getLong();
+        int bodySize = entry.getInt();
+        int blocksSize = entry.getInt();
+        if(bodySize < 0 || blocksSize < JaTape.HEADER_LENGTH
+                || blocksSize > MAX_BLOCKS_SIZE) {
+            return null; // Corrupted entry
+        }
+        Inflater inflater = new Inflater();
+        try {
+            if(offset < 0 || bodySize > channel.size() - offset) {
+                return null; // Body past end of file
+            }
+            ByteBuffer body = read(offset, bodySize);
+            inflater.setInput(body.array(), 0, bodySize);
+            byte[] blocks = new byte[blocksSize];
+            int n = 0;
+            while(n < blocksSize && !inflater.finished()) {
+                int inflated = inflater.inflate(blocks, n, blocksSize - n);
+                if(inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    return null; // Truncated body
+                }
+                n += inflated;
+            }
+            if(n < blocksSize) {
+                return null; // Body shorter than its entry tells
+            }
+            byte[] header = Arrays.copyOf(blocks, JaTape.HEADER_LENGTH);
+            byte[] data = Arrays.copyOfRange(blocks, JaTape.HEADER_LENGTH, blocksSize);
+            return new JaTape(header, data);
+        } catch (IOException | DataFormatException ex) {
+            return null;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Positional read, safe from many threads
+     */
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while(buf.hasRemaining()) {
+            if(channel.read(buf, position + buf.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    private static void write(FileChannel out, ByteBuffer buf, long position) throws IOException {
+        while(buf.hasRemaining()) {
+            position += out.write(buf, position);
+        }
+    }
+
+    private static byte[] deflate(Deflater deflater, byte[] blocks) {
+        deflater.reset();
+        deflater.setInput(blocks);
+        deflater.finish();
+        byte[] buf = new byte[blocks.length + 64];
+        int n = 0;
+        while(!deflater.finished()) {
+            if(n == buf.length) {
+                buf = Arrays.copyOf(buf, 2*buf.length);
+            }
+            n += deflater.deflate(buf, n, buf.length - n);
+        }
+        return Arrays.copyOf(buf, n);
+    }
+}
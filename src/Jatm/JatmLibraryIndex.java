@@ -0,0 +1,600 @@
+/*
+ * JatmLibraryIndex - Content index of a tape files library for Jatm
+ *
+ * This file is part of JAtm - The Jupiter Ace tape manager.
+ *
+ * JAtm is a tool to manage Jupiter Ace tape files in several formats.
+ * Copyright (C) 2015  Ricardo Fernandes Lopes
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package Jatm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Content addressed index of the tapes in a set of files.
+ * Each tape is known by a hash of its header and data blocks, mapped to
+ * every file position holding it, so duplicates and other copies of a
+ * tape are found without loading the files again.
+ * The words of Dictionary tapes are indexed too, by name and by a hash of
+ * their relocation independent body (see JaVocabulary.getWords), to find
+ * which tapes define a word and where else the same definition appears.
+ * The index is kept on disk and updated incrementally: only files whose
+ * modification time or size changed are loaded again, and they are
+ * hashed on the loading threads.
+ * @author Ricardo F. Lopes
+ */
+public class JatmLibraryIndex {
+    private static final int MAGIC = 0x4A41544C; // "JATL"
+    private static final int VERSION = 3;
+    private static final int HASH_LENGTH = 20;  // SHA-1
+
+    private final Map<Path, IndexedFile> files;        // by absolute path
+    private final Map<String, List<Location>> byHash;  // tape copies
+    private final Map<String, List<WordLocation>> byWordName; // word definitions
+    private final Map<Long, List<WordLocation>> byWordHash;   // same definitions
+
+    /**
+     * Constructor: empty index
+     */
+    public JatmLibraryIndex() {
+        files = new LinkedHashMap<>();
+        byHash = new HashMap<>();
+        byWordName = new HashMap<>();
+        byWordHash = new HashMap<>();
+    }
+
+    /**
+     * Read an index file. A missing file or an older index version
+     * gives an empty index
+     * @param indexFile index file path
+     * @return true if an error occur
+     */
+    public boolean open(Path indexFile) {
+        clear();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if(in.readInt() != MAGIC) {
+                return true; // Not an index file
+            }
+            if(in.readInt() != VERSION) {
+                return false; // Older index: all files indexed again
+            }
+            int fileCount = in.readInt();
+            for(int f = 0; f < fileCount; f++) {
+                Path path = Paths.get(in.readUTF());
+                long modified = in.readLong();
+                long size = in.readLong();
+                boolean failed = in.readBoolean();
+                int tapeCount = in.readInt();
+                Location[] tapes = new Location[tapeCount];
+                for(int i = 0; i < tapeCount; i++) {
+                    byte[] hash = new byte[HASH_LENGTH];
+                    in.readFully(hash);
+                    long offset = in.readLong();
+                    String name = in.readUTF();
+                    boolean dict = in.readBoolean();
+                    int wordCount = in.readInt();
+                    String[] wordNames = new String[wordCount];
+                    long[] wordHashes = new long[wordCount];
+                    for(int w = 0; w < wordCount; w++) {
+                        wordNames[w] = in.readUTF();
+                        wordHashes[w] = in.readLong();
+                    }
+                    tapes[i] = new Location(toHex(hash), path, i, offset, name, dict,
+                            wordNames, wordHashes);
+                }
+                add(new IndexedFile(path, modified, size, failed, tapes));
+            }
+        } catch (NoSuchFileException ex) {
+            return false; // New index
+        } catch (IOException ex) {
+            clear();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Write the index file. The previous file is replaced only when the
+     * new one is complete
+     * @param indexFile index file path
+     * @return true if an error occur
+     */
+    public boolean save(Path indexFile) {
+        Path temp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(files.size());
+                for (IndexedFile file : files.values()) {
+                    out.writeUTF(file.path.toString());
+                    out.writeLong(file.modified);
+                    out.writeLong(file.size);
+                    out.writeBoolean(file.failed);
+                    out.writeInt(file.tapes.length);
+                    for (Location tape : file.tapes) {
+                        out.write(fromHex(tape.hash));
+                        out.writeLong(tape.offset);
+                        out.writeUTF(tape.name);
+                        out.writeBoolean(tape.dict);
+                        out.writeInt(tape.words.length);
+                        for (WordLocation word : tape.words) {
+                            out.writeUTF(word.name);
+                            out.writeLong(word.hash);
+                        }
+                    }
+                }
+            }
+            Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Bring files up to date in the index. Unchanged files are not loaded,
+     * new and changed files and files that failed to load before are
+     * loaded in parallel. Indexed files no longer on disk are dropped
+     * @param paths tape files to index
+     * @return number of files loaded, -1 if interrupted
+     */
+    public int update(List<Path> paths) {
+        // Drop deleted files
+        Iterator<IndexedFile> indexed = files.values().iterator();
+        while(indexed.hasNext()) {
+            IndexedFile file = indexed.next();
+            if(!Files.isRegularFile(file.path)) {
+                indexed.remove();
+                unmap(file);
+            }
+        }
+
+        // Find new and changed files
+        List<Path> changed = new ArrayList<>();
+        List<BasicFileAttributes> changedAttributes = new ArrayList<>();
+        Set<Path> seen = new HashSet<>();
+        for (Path path : paths) {
+            Path absolute = path.toAbsolutePath().normalize();
+            if(!seen.add(absolute)) {
+                continue; // repeated
+            }
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(absolute, BasicFileAttributes.class);
+            } catch (IOException ex) {
+                continue; // Not readable: not indexed
+            }
+            IndexedFile file = files.get(absolute);
+            if(file == null || file.failed || file.modified != attributes.lastModifiedTime().toMillis()
+                    || file.size != attributes.size()) {
+                changed.add(absolute);
+                changedAttributes.add(attributes);
+            }
+        }
+
+        // Load and hash them in parallel, add them in order
+        boolean cancelled = new JatmFileLoader().process(changed, JatmLibraryIndex::locate, (index, path, locations) -> {
+            BasicFileAttributes attributes = changedAttributes.get(index);
+            IndexedFile old = files.remove(path);
+            if(old != null) {
+                unmap(old);
+            }
+            add(new IndexedFile(path, attributes.lastModifiedTime().toMillis(), attributes.size(),
+                    locations == null, (locations == null) ? new Location[0] : locations));
+        });
+        return cancelled ? -1 : changed.size();
+    }
+
+    /**
+     * Get all copies of a tape in the library
+     * @param hash tape hash, as given by hash()
+     * @return tape locations, empty if not found
+     */
+    public List<Location> find(String hash) {
+        List<Location> found = byHash.get(hash);
+        return (found == null) ? Collections.<Location>emptyList() : Collections.unmodifiableList(found);
+    }
+
+    /**
+     * Get all copies of a tape in the library
+     * @param tape tape to look for
+     * @return tape locations, empty if not found
+     */
+    public List<Location> find(JaTape tape) {
+        return find(hash(tape));
+    }
+
+    /**
+     * Get all definitions of a word in the library
+     * @param name word name
+     * @return word definitions, in index order, empty if not found
+     */
+    public List<WordLocation> findWord(String name) {
+        List<WordLocation> found = byWordName.get(name);
+        return (found == null) ? Collections.<WordLocation>emptyList() : Collections.unmodifiableList(found);
+    }
+
+    /**
+     * Get all words with the same definition, under any name
+     * @param hash word body hash, as given by JaVocabulary.Word.getHash
+     * @return word definitions, in index order, empty if not found
+     */
+    public List<WordLocation> findDefinition(long hash) {
+        List<WordLocation> found = byWordHash.get(hash);
+        return (found == null) ? Collections.<WordLocation>emptyList() : Collections.unmodifiableList(found);
+    }
+
+    /**
+     * Get the number of indexed word definitions, copies included
+     * @return word count
+     */
+    public int getWordCount() {
+        int count = 0;
+        for (List<WordLocation> words : byWordHash.values()) {
+            count += words.size();
+        }
+        return count;
+    }
+
+    /**
+     * Get the number of different word definitions
+     * @return unique definition count
+     */
+    public int getUniqueWordCount() {
+        return byWordHash.size();
+    }
+
+    /**
+     * Get the tapes found more than once in the library
+     * @return groups of locations of the same tape, in index order
+     */
+    public List<List<Location>> getDuplicates() {
+        List<List<Location>> duplicates = new ArrayList<>();
+        for (IndexedFile file : files.values()) {
+            for (Location tape : file.tapes) {
+                List<Location> copies = byHash.get(tape.hash);
+                if(copies.size() > 1 && copies.get(0) == tape) { // report once
+                    duplicates.add(Collections.unmodifiableList(copies));
+                }
+            }
+        }
+        return duplicates;
+    }
+
+    /**
+     * Get the number of indexed files
+     * @return file count
+     */
+    public int getFileCount() {
+        return files.size();
+    }
+
+    /**
+     * Get the indexed files that could not be loaded.
+     * They are loaded again on the next update
+     * @return failed files, in index order
+     */
+    public List<Path> getFailedFiles() {
+        List<Path> failed = new ArrayList<>();
+        for (IndexedFile file : files.values()) {
+            if(file.failed) {
+                failed.add(file.path);
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Get the number of indexed tapes, copies included
+     * @return tape count
+     */
+    public int getTapeCount() {
+        int count = 0;
+        for (IndexedFile file : files.values()) {
+            count += file.tapes.length;
+        }
+        return count;
+    }
+
+    /**
+     * Get the number of different tapes
+     * @return unique tape count
+     */
+    public int getUniqueCount() {
+        return byHash.size();
+    }
+
+    /**
+     * Calculate a tape content hash, from its header and data blocks
+     * @param tape tape file
+     * @return SHA-1 hash in hexadecimal
+     */
+    public static String hash(JaTape tape) {
+        return toHex(hashBytes(tape));
+    }
+
+    // ================= PRIVATE =======================
+    /**
+     * Calculate a tape content hash
+     * @param tape tape file
+     * @return SHA-1 hash bytes
+     */
+    static byte[] hashBytes(JaTape tape) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex); // required in every Java platform
+        }
+        digest.update(tape.getHeaderView());
+        digest.update(tape.getDataBlockView());
+        return digest.digest();
+    }
+
+    /**
+     * Open a file and hash its tapes and their words.
+     * TAP files give the position of each tape in the file.
+     * JTL files give the hash of each tape, only their dict tapes are
+     * decompressed to index the words
+     * @return tape locations, or null if the file can not be loaded
+     */
+    private static Location[] locate(Path path, JatmFile format) {
+        List<JaTape> tapes = format.open(path);
+        if(tapes == null) {
+            return null;
+        }
+        if(tapes instanceof JatmLibraryArchive) {
+            JatmLibraryArchive library = (JatmLibraryArchive) tapes;
+            Location[] locations = new Location[library.size()];
+            for(int i = 0; i < locations.length; i++) {
+                JaTape tape = library.isDict(i) ? library.get(i) : null;
+                locations[i] = locate(path, i, -1, library.getHash(i),
+                        library.getName(i), library.isDict(i), tape);
+            }
+            library.close();
+            return locations;
+        }
+        JatmTapArchive archive = (tapes instanceof JatmTapArchive) ? (JatmTapArchive) tapes : null;
+        Location[] locations = new Location[tapes.size()];
+        for(int i = 0; i < locations.length; i++) {
+            JaTape tape = tapes.get(i);
+            locations[i] = locate(path, i, (archive != null) ? archive.getOffset(i) : -1,
+                    hash(tape), tape.getFilename(), tape.isDict(), tape);
+        }
+        return locations;
+    }
+
+    /**
+     * Locate one tape, with the words of a dict tape if given
+     */
+    private static Location locate(Path path, int index, long offset, String hash,
+            String name, boolean dict, JaTape tape) {
+        List<JaVocabulary.Word> words = (tape != null)
+                ? new JaVocabulary(tape).getWords() : Collections.<JaVocabulary.Word>emptyList();
+        String[] wordNames = new String[words.size()];
+        long[] wordHashes = new long[words.size()];
+        for(int w = 0; w < wordNames.length; w++) {
+            wordNames[w] = words.get(w).getName();
+            wordHashes[w] = words.get(w).getHash();
+        }
+        return new Location(hash, path, index, offset, name, dict, wordNames, wordHashes);
+    }
+
+    private void clear() {
+        files.clear();
+        byHash.clear();
+        byWordName.clear();
+        byWordHash.clear();
+    }
+
+    private void add(IndexedFile file) {
+        files.put(file.path, file);
+        for (Location tape : file.tapes) {
+            put(byHash, tape.hash, tape);
+            for (WordLocation word : tape.words) {
+                put(byWordName, word.name, word);
+                put(byWordHash, word.hash, word);
+            }
+        }
+    }
+
+    private void unmap(IndexedFile file) {
+        for (Location tape : file.tapes) {
+            remove(byHash, tape.hash, tape);
+            for (WordLocation word : tape.words) {
+                remove(byWordName, word.name, word);
+                remove(byWordHash, word.hash, word);
+            }
+        }
+    }
+
+    private static <K, V> void put(Map<K, List<V>> map, K key, V value) {
+        List<V> values = map.get(key);
+        if(values == null) {
+            values = new ArrayList<>(1);
+            map.put(key, values);
+        }
+        values.add(value);
+    }
+
+    private static <K, V> void remove(Map<K, List<V>> map, K key, V value) {
+        List<V> values = map.get(key);
+        values.remove(value);
+        if(values.isEmpty()) {
+            map.remove(key);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(2*bytes.length);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0x0F, 16))
+               .append(Character.forDigit(b & 0x0F, 16));
+        }
+        return hex.toString();
+    }
+
+    private static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length()/2];
+        for(int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2*i, 2*i+2), 16);
+        }
+        return bytes;
+    }
+
+    /**
+     * An indexed file: its state when indexed and its tapes
+     */
+    private static class IndexedFile {
+        final Path path;
+        final long modified;    // modification time, ms
+        final long size;        // size in bytes
+        final boolean failed;   // not loaded, retried on next update
+        final Location[] tapes; // in file order
+
+        IndexedFile(Path path, long modified, long size, boolean failed, Location[] tapes) {
+            this.path = path;
+            this.modified = modified;
+            this.size = size;
+            this.failed = failed;
+            this.tapes = tapes;
+        }
+    }
+
+    /**
+     * A tape position in a library file
+     */
+    public static class Location {
+        private final String hash;
+        private final Path file;
+        private final int index;
+        private final long offset;
+        private final String name;
+        private final boolean dict;
+        private final WordLocation[] words; // Dictionary words, oldest first
+
+        Location(String hash, Path file, int index, long offset, String name, boolean dict,
+                String[] wordNames, long[] wordHashes) {
+            this.hash = hash;
+            this.file = file;
+            this.index = index;
+            this.offset = offset;
+            this.name = name;
+            this.dict = dict;
+            words = new WordLocation[wordNames.length];
+            for(int i = 0; i < words.length; i++) {
+                words[i] = new WordLocation(wordNames[i], wordHashes[i], this);
+            }
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        /**
+         * Get the tape position in its file
+         * @return tape index, from 0
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * Get the tape byte position in its file, known for TAP files only
+         * @return file offset, or -1 if unknown
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isDict() {
+            return dict;
+        }
+
+        /**
+         * Get the words defined in the tape
+         * @return words, oldest first, empty if not a Dictionary tape
+         */
+        public List<WordLocation> getWords() {
+            return Collections.unmodifiableList(Arrays.asList(words));
+        }
+    }
+
+    /**
+     * A word defined in a library tape
+     */
+    public static class WordLocation {
+        private final String name;
+        private final long hash;
+        private final Location tape;
+
+        WordLocation(String name, long hash, Location tape) {
+            this.name = name;
+            this.hash = hash;
+            this.tape = tape;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Get the word body hash, the same for the same definition
+         * wherever it is placed in memory
+         * @return word hash
+         */
+        public long getHash() {
+            return hash;
+        }
+
+        public Location getTape() {
+            return tape;
+        }
+    }
+}
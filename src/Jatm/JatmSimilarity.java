@@ -0,0 +1,259 @@
+/*
+ * JatmSimilarity - Near duplicate tape detection for Jatm
+ *
+ * This file is part of JAtm - The Jupiter Ace tape manager.
+ *
+ * JAtm is a tool to manage Jupiter Ace tape files in several formats.
+ * Copyright (C) 2015  Ricardo Fernandes Lopes
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package Jatm;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Finds tapes with similar data, like the same program with small
+ * patches, another name or another address.
+ * Each tape data is cut into overlapping 4 byte windows, taken by a
+ * rolling hash, and summarized by a MinHash signature: the fraction of
+ * equal signature values estimates the fraction of windows the tapes
+ * share. Signatures are grouped in bands (locality sensitive hashing),
+ * so only tapes sharing a whole band are compared.
+ * @author Ricardo F. Lopes
+ */
+public class JatmSimilarity {
+    public static final int SIGNATURE_LENGTH = 128; // MinHash values per tape
+    private static final int ROWS = 4;               // signature values per band
+    private static final int BANDS = SIGNATURE_LENGTH / ROWS;
+    private static final int WINDOW = 4;             // bytes per shingle
+
+    private static final int[] MULTIPLIER = new int[SIGNATURE_LENGTH];
+    private static final int[] INCREMENT = new int[SIGNATURE_LENGTH];
+    static { // Fixed hash functions: signatures can be kept and compared later
+        Random random = new Random(0x4A41544DL);
+        for(int i = 0; i < SIGNATURE_LENGTH; i++) {
+            MULTIPLIER[i] = random.nextInt() | 1; // odd
+            INCREMENT[i] = random.nextInt();
+        }
+    }
+
+    private final int threads;
+
+    /**
+     * Constructor: one thread per processor
+     */
+    public JatmSimilarity() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor
+     * @param threads number of signatures calculated at the same time
+     */
+    public JatmSimilarity(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Calculate a tape data MinHash signature
+     * @param tape tape file
+     * @return signature, or null if the data is shorter than a window
+     */
+    public static int[] signature(JaTape tape) {
+        ByteBuffer data = tape.getDataView();
+        if(data.remaining() < WINDOW) {
+            return null;
+        }
+        int[] signature = new int[SIGNATURE_LENGTH];
+        Arrays.fill(signature, Integer.MAX_VALUE);
+        int window = 0; // last bytes, rolled in one at a time
+        for(int n = 0; data.hasRemaining(); n++) {
+            window = (window << 8) | (data.get() & 0xFF);
+            if(n < WINDOW-1) {
+                continue; // window not full yet
+            }
+            for(int i = 0; i < SIGNATURE_LENGTH; i++) {
+                int h = mix(window * MULTIPLIER[i] + INCREMENT[i]);
+                if(h < signature[i]) {
+                    signature[i] = h;
+                }
+            }
+        }
+        return signature;
+    }
+
+    /**
+     * Estimate how similar two tapes are from their signatures
+     * @param a first signature
+     * @param b second signature
+     * @return fraction of shared data windows, from 0 to 1
+     */
+    public static double similarity(int[] a, int[] b) {
+        int equal = 0;
+        for(int i = 0; i < SIGNATURE_LENGTH; i++) {
+            if(a[i] == b[i]) {
+                equal++;
+            }
+        }
+        return (double) equal / SIGNATURE_LENGTH;
+    }
+
+    /**
+     * Find pairs of similar tapes
+     * @param tapes tapes to compare
+     * @param threshold least similarity reported, from 0 to 1
+     * @return similar pairs, most similar first
+     * @throws InterruptedException if interrupted
+     */
+    public List<Pair> findSimilar(List<JaTape> tapes, double threshold) throws InterruptedException {
+        int[][] signatures = signatures(tapes);
+
+        // Tapes with a whole band equal are candidates
+        Set<Long> candidates = new HashSet<>();
+        for(int band = 0; band < BANDS; band++) {
+            Map<Long, List<Integer>> buckets = new HashMap<>();
+            for(int t = 0; t < signatures.length; t++) {
+                if(signatures[t] == null) {
+                    continue;
+                }
+                long key = 1;
+                for(int r = band*ROWS; r < (band+1)*ROWS; r++) {
+                    key = 31*key + signatures[t][r];
+                }
+                List<Integer> bucket = buckets.get(key);
+                if(bucket == null) {
+                    bucket = new ArrayList<>(2);
+                    buckets.put(key, bucket);
+                }
+                for (int other : bucket) {
+                    candidates.add(((long) other << 32) | t);
+                }
+                bucket.add(t);
+            }
+            if(Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+
+        // Keep candidates similar enough
+        List<Pair> pairs = new ArrayList<>();
+        for (long candidate : candidates) {
+            int first = (int) (candidate >>> 32);
+            int second = (int) candidate;
+            double s = similarity(signatures[first], signatures[second]);
+            if(s >= threshold) {
+                pairs.add(new Pair(first, second, s));
+            }
+        }
+        Collections.sort(pairs, (p, q) -> (p.similarity != q.similarity)
+                ? Double.compare(q.similarity, p.similarity)
+                : (p.first != q.first) ? Integer.compare(p.first, q.first)
+                : Integer.compare(p.second, q.second));
+        return pairs;
+    }
+
+    /**
+     * Calculate all signatures in parallel
+     * @param tapes tapes
+     * @return signatures in tape order, null for too short tapes
+     * @throws InterruptedException if interrupted
+     */
+    public int[][] signatures(List<JaTape> tapes) throws InterruptedException {
+        int[][] signatures = new int[tapes.size()][];
+        int workers = Math.min(threads, Math.max(1, tapes.size()));
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<?>> parts = new ArrayList<>(workers);
+            for(int w = 0; w < workers; w++) {
+                final int start = w;
+                parts.add(pool.submit(() -> {
+                    for(int t = start; t < signatures.length; t += workers) {
+                        signatures[t] = signature(tapes.get(t));
+                    }
+                }));
+            }
+            for (Future<?> part : parts) {
+                part.get();
+            }
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException(ex.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return signatures;
+    }
+
+    // ================= PRIVATE =======================
+    /**
+     * Spread hash bits (murmur3 finalizer)
+     */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * Two similar tapes
+     */
+    public static class Pair {
+        private final int first;
+        private final int second;
+        private final double similarity;
+
+        Pair(int first, int second, double similarity) {
+            this.first = first;
+            this.second = second;
+            this.similarity = similarity;
+        }
+
+        /**
+         * @return first tape position in the compared list
+         */
+        public int getFirst() {
+            return first;
+        }
+
+        /**
+         * @return second tape position in the compared list, after first
+         */
+        public int getSecond() {
+            return second;
+        }
+
+        /**
+         * @return estimated similarity, from 0 to 1
+         */
+        public double getSimilarity() {
+            return similarity;
+        }
+    }
+}
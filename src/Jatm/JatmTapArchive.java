@@ -0,0 +1,181 @@
+/*
+ * JatmTapArchive - Memory mapped TAP file reader for Jatm
+ *
+ * This file is part of JAtm - The Jupiter Ace tape manager.
+ *
+ * JAtm is a tool to manage Jupiter Ace tape files in several formats.
+ * Copyright (C) 2015  Ricardo Fernandes Lopes
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package Jatm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Read only list of the tapes in a TAP file.
+ * The file is memory mapped and indexed in a single pass; a tape is only
+ * built when first accessed. The file channel is closed once mapped, but
+ * the mapping itself lasts until garbage collected and may lock the file
+ * on some systems, so loaders copying all tapes open file contents instead.
+ * @author Ricardo F. Lopes
+ */
+public class JatmTapArchive extends AbstractList<JaTape> implements RandomAccess {
+    private ByteBuffer buffer;   // mapped file contents
+    private int[] tapeOffset;    // TAP header record position of each tape
+    private int tapeCount;
+    private JaTape[] tapes;      // tapes built so far
+
+    /**
+     * Empty Constructor
+     */
+    public JatmTapArchive() {
+        tapeOffset = new int[0];
+        tapes = new JaTape[0];
+    }
+
+    /**
+     * Map and index a TAP file
+     * @param filePath TAP file
+     * @return true if an error occur
+     */
+    public boolean open(Path filePath) {
+        close();
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            if(channel.size() > Integer.MAX_VALUE) {
+                return true; // Too large to map at once
+            }
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer = map.order(ByteOrder.LITTLE_ENDIAN);
+        } catch (IOException ex) {
+            return true;
+        }
+        buildIndex();
+        return false;
+    }
+
+    /**
+     * Index TAP file contents already in memory, such as an archive entry
+     * @param contents TAP file bytes, used in place
+     */
+    public void open(ByteBuffer contents) {
+        close();
+        buffer = contents.slice().order(ByteOrder.LITTLE_ENDIAN);
+        buildIndex();
+    }
+
+    /**
+     * Drop the file contents. A mapping is unmapped when garbage collected
+     */
+    public void close() {
+        buffer = null;
+        tapeOffset = new int[0];
+        tapes = new JaTape[0];
+        tapeCount = 0;
+    }
+
+    @Override
+    public int size() {
+        return tapeCount;
+    }
+
+    @Override
+    public JaTape get(int index) {
+        if(index < 0 || index >= tapeCount) {
+            throw new IndexOutOfBoundsException("Tape " + index + " of " + tapeCount);
+        }
+        JaTape tape = tapes[index];
+        if(tape == null) {
+            tape = buildTape(tapeOffset[index]);
+            tapes[index] = tape;
+        }
+        return tape;
+    }
+
+    /**
+     * Get a tape position in the TAP file
+     * @param index tape index
+     * @return file offset of the tape header record
+     */
+    public int getOffset(int index) {
+        return tapeOffset[index];
+    }
+
+    // ================= PRIVATE =======================
+    /**
+     * Record the position of every complete header and data record pair
+     */
+    private void buildIndex() {
+        int[] offsets = new int[64];
+        int count = 0;
+        int index = 0;
+        int end = buffer.limit();
+        while(index + 2 <= end) {
+            int headerLength = buffer.getShort(index) & 0xFFFF;
+            int dataIndex = index + 2 + headerLength;
+            if(dataIndex + 2 > end) {
+                break; // truncated header record
+            }
+            int dataLength = buffer.getShort(dataIndex) & 0xFFFF;
+            int next = dataIndex + 2 + dataLength;
+            if(next > end) {
+                break; // truncated data record
+            }
+            if(count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, 2*count);
+            }
+            offsets[count++] = index;
+            index = next;
+        }
+        tapeOffset = Arrays.copyOf(offsets, count);
+        tapeCount = count;
+        tapes = new JaTape[count];
+    }
+
+    /**
+     * Build a tape from its TAP records
+     * @param index header record position
+     * @return the tape
+     */
+    private JaTape buildTape(int index) {
+        byte[] header = readBlock(index, JaTapeBlock.HEADER_BLOCK);
+        byte[] data = readBlock(index + 2 + header.length - 1, JaTapeBlock.DATA_BLOCK);
+        return new JaTape(header, data);
+    }
+
+    /**
+     * Copy a TAP record as a tape block, restoring the block type byte
+     * @param index record position
+     * @param type block type
+     * @return tape block bytes
+     */
+    private byte[] readBlock(int index, byte type) {
+        int length = buffer.getShort(index) & 0xFFFF;
+        byte[] block = new byte[length+1];
+        block[0] = type;
+        ByteBuffer record = buffer.duplicate();
+        record.position(index + 2);
+        record.get(block, 1, length);
+        return block;
+    }
+}
@@ -0,0 +1,366 @@
+/*
+ * JatmTapePatch - Binary patch between two tape files for Jatm
+ *
+ * This file is part of JAtm - The Jupiter Ace tape manager.
+ *
+ * JAtm is a tool to manage Jupiter Ace tape files in several formats.
+ * Copyright (C) 2015  Ricardo Fernandes Lopes
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package Jatm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Changes turning a source tape into a target tape: the header fields
+ * that differ and the data ranges replaced, found with JatmDataDiff.
+ * A patch checks the source and the result with a CRC32 of their
+ * contents, block CRC bytes excluded, and sets the result block CRCs.
+ *
+ * A patch file holds the patches of all tapes of a tape file:
+ *   "JATP", version, tape count, then per tape:
+ *   source and target CRC32, header field count, fields (index, bytes),
+ *   data block type, target data length, range count,
+ *   ranges (source start, source length, target length, target bytes)
+ * @author Ricardo F. Lopes
+ */
+public class JatmTapePatch {
+    private static final int MAGIC = 0x4A415450; // "JATP"
+    private static final int VERSION = 1;
+
+    /**
+     * Header fields patched: position and size
+     */
+    private static final int[][] FIELDS = {
+        { JaTape.BLOCK_TYPE, 1 }, { JaTape.FILE_TYPE, 1 }, { JaTape.FILE_NAME, 10 },
+        { JaTape.LENGTH, 2 }, { JaTape.ADDRESS, 2 }, { JaTape.CURR_WRD, 2 },
+        { JaTape.CURRENT, 2 }, { JaTape.CONTEXT, 2 }, { JaTape.VOCLNK, 2 },
+        { JaTape.STKBOT, 2 } };
+
+    private final int sourceCrc;
+    private final int targetCrc;
+    private final List<byte[]> fields;  // changed fields: index then bytes
+    private final byte blockType;       // target data block type byte
+    private final int targetLength;     // target core data length
+    private final List<Hunk> hunks;
+
+    private JatmTapePatch(int sourceCrc, int targetCrc, List<byte[]> fields,
+            byte blockType, int targetLength, List<Hunk> hunks) {
+        this.sourceCrc = sourceCrc;
+        this.targetCrc = targetCrc;
+        this.fields = fields;
+        this.blockType = blockType;
+        this.targetLength = targetLength;
+        this.hunks = hunks;
+    }
+
+    /**
+     * Create the patch turning a tape into another
+     * @param source tape to be patched
+     * @param target tape given by the patch
+     * @return patch
+     */
+    public static JatmTapePatch create(JaTape source, JaTape target) {
+        byte[] h1 = source.getHeaderBlock();
+        byte[] h2 = target.getHeaderBlock();
+        List<byte[]> fields = new ArrayList<>();
+        for (int[] field : FIELDS) {
+            int index = field[0];
+            int size = field[1];
+            if(JatmDataDiff.mismatch(h1, index, h2, index, size) < size) {
+                byte[] change = new byte[size + 1];
+                change[0] = (byte) index;
+                System.arraycopy(h2, index, change, 1, size);
+                fields.add(change);
+            }
+        }
+
+        byte[] d1 = source.getData();
+        byte[] d2 = target.getData();
+        List<Hunk> hunks = new ArrayList<>();
+        for (JatmDataDiff.Range r : new JatmDataDiff(d1, d2).getRanges()) {
+            hunks.add(new Hunk(r.getStartA(), r.getLengthA(),
+                    Arrays.copyOfRange(d2, r.getStartB(), r.getStartB() + r.getLengthB())));
+        }
+        return new JatmTapePatch(checksum(source), checksum(target), fields,
+                target.getDataBlockView().get(0), d2.length, hunks);
+    }
+
+    /**
+     * Create a tape by patching a source tape. The source is not changed
+     * @param source tape the patch was created from
+     * @return patched tape, or null if the source or the result do not match
+     */
+    public JaTape apply(JaTape source) {
+        if(checksum(source) != sourceCrc) {
+            return null; // not the source tape
+        }
+        byte[] header = source.getHeaderBlock();
+        for (byte[] field : fields) {
+            System.arraycopy(field, 1, header, field[0], field.length - 1);
+        }
+
+        byte[] block = new byte[targetLength + 2];
+        block[0] = blockType;
+        ByteBuffer data = source.getDataView();
+        int read = 0;   // source position
+        int write = 1;  // block position
+        for (Hunk hunk : hunks) {
+            int equal = hunk.start - read;
+            if(equal < 0 || hunk.start + hunk.length > data.remaining()
+                    || write + equal + hunk.bytes.length > targetLength + 1) {
+                return null; // invalid range
+            }
+            getBytes(data, read, block, write, equal);
+            write += equal;
+            System.arraycopy(hunk.bytes, 0, block, write, hunk.bytes.length);
+            write += hunk.bytes.length;
+            read = hunk.start + hunk.length;
+        }
+        if(data.remaining() - read != targetLength + 1 - write) {
+            return null; // invalid length
+        }
+        getBytes(data, read, block, write, data.remaining() - read);
+
+        JaTape tape = new JaTape(header, block);
+        tape.fixCrc();
+        if(checksum(tape) != targetCrc) {
+            return null; // patched tape does not match
+        }
+        return tape;
+    }
+
+    /**
+     * Check if the patch changes nothing
+     * @return true if source and target contents are the same
+     */
+    public boolean isEmpty() {
+        return fields.isEmpty() && hunks.isEmpty() && sourceCrc == targetCrc;
+    }
+
+    /**
+     * Get the number of changed header fields
+     * @return field count
+     */
+    public int getFieldCount() {
+        return fields.size();
+    }
+
+    /**
+     * Get the number of replaced data ranges
+     * @return range count
+     */
+    public int getRangeCount() {
+        return hunks.size();
+    }
+
+    /**
+     * Get the number of target data bytes held by the patch
+     * @return byte count
+     */
+    public int getByteCount() {
+        int count = 0;
+        for (Hunk hunk : hunks) {
+            count += hunk.bytes.length;
+        }
+        return count;
+    }
+
+    /**
+     * Create the patches turning the tapes of a file into the tapes of
+     * another, paired by position. Targets with no source are patched
+     * from an empty tape
+     * @param sources tapes to be patched
+     * @param targets tapes given by the patches
+     * @return a patch per target tape
+     */
+    public static List<JatmTapePatch> create(List<JaTape> sources, List<JaTape> targets) {
+        List<JatmTapePatch> patches = new ArrayList<>(targets.size());
+        for(int i = 0; i < targets.size(); i++) {
+            JaTape source = (i < sources.size()) ? sources.get(i) : new JaTape();
+            patches.add(create(source, targets.get(i)));
+        }
+        return patches;
+    }
+
+    /**
+     * Patch the tapes of a file. Sources past the patches count are dropped
+     * @param patches a patch per target tape
+     * @param sources tapes the patches were created from
+     * @param targets list to add the patched tapes to
+     * @return true if a tape can not be patched
+     */
+    public static boolean apply(List<JatmTapePatch> patches, List<JaTape> sources, List<JaTape> targets) {
+        for(int i = 0; i < patches.size(); i++) {
+            JaTape source = (i < sources.size()) ? sources.get(i) : new JaTape();
+            JaTape tape = patches.get(i).apply(source);
+            if(tape == null) {
+                return true;
+            }
+            targets.add(tape);
+        }
+        return false;
+    }
+
+    /**
+     * Write a patch file. The previous file is replaced only when the
+     * new one is complete
+     * @param file patch file path
+     * @param patches patches to write
+     * @return true if an error occur
+     */
+    public static boolean write(Path file, List<JatmTapePatch> patches) {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(patches.size());
+                for (JatmTapePatch patch : patches) {
+                    out.writeInt(patch.sourceCrc);
+                    out.writeInt(patch.targetCrc);
+                    out.writeByte(patch.fields.size());
+                    for (byte[] field : patch.fields) {
+                        out.write(field);
+                    }
+                    out.writeByte(patch.blockType);
+                    out.writeInt(patch.targetLength);
+                    out.writeInt(patch.hunks.size());
+                    for (Hunk hunk : patch.hunks) {
+                        out.writeInt(hunk.start);
+                        out.writeInt(hunk.length);
+                        out.writeInt(hunk.bytes.length);
+                        out.write(hunk.bytes);
+                    }
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Read a patch file
+     * @param file patch file path
+     * @return patches, or null if an error occur
+     */
+    public static List<JatmTapePatch> read(Path file) {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file)))) {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null; // Not a patch file
+            }
+            int count = in.readInt();
+            List<JatmTapePatch> patches = new ArrayList<>();
+            for(int p = 0; p < count; p++) {
+                int sourceCrc = in.readInt();
+                int targetCrc = in.readInt();
+                int fieldCount = in.readUnsignedByte();
+                List<byte[]> fields = new ArrayList<>(fieldCount);
+                for(int i = 0; i < fieldCount; i++) {
+                    int index = in.readUnsignedByte();
+                    int size = fieldSize(index);
+                    if(size < 0) {
+                        return null;
+                    }
+                    byte[] field = new byte[size + 1];
+                    field[0] = (byte) index;
+                    in.readFully(field, 1, size);
+                    fields.add(field);
+                }
+                byte blockType = in.readByte();
+                int targetLength = in.readInt();
+                int hunkCount = in.readInt();
+                if(targetLength < 0 || targetLength > 0xFFFF || hunkCount < 0 || hunkCount > targetLength + 0x10000) {
+                    return null;
+                }
+                List<Hunk> hunks = new ArrayList<>(hunkCount);
+                for(int i = 0; i < hunkCount; i++) {
+                    int start = in.readInt();
+                    int length = in.readInt();
+                    int size = in.readInt();
+                    if(start < 0 || length < 0 || size < 0 || size > targetLength) {
+                        return null;
+                    }
+                    byte[] bytes = new byte[size];
+                    in.readFully(bytes);
+                    hunks.add(new Hunk(start, length, bytes));
+                }
+                patches.add(new JatmTapePatch(sourceCrc, targetCrc, fields, blockType, targetLength, hunks));
+            }
+            return patches;
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    // ================= PRIVATE =======================
+    /**
+     * CRC32 of header and core data, block CRC bytes excluded
+     */
+    private static int checksum(JaTape tape) {
+        CRC32 crc = new CRC32();
+        ByteBuffer header = tape.getHeaderView();
+        header.limit(JaTape.CRC);
+        crc.update(header);
+        crc.update(tape.getDataView());
+        return (int) crc.getValue();
+    }
+
+    private static int fieldSize(int index) {
+        for (int[] field : FIELDS) {
+            if(field[0] == index) {
+                return field[1];
+            }
+        }
+        return -1;
+    }
+
+    private static void getBytes(ByteBuffer data, int from, byte[] to, int offset, int length) {
+        ByteBuffer part = data.duplicate();
+        part.position(part.position() + from);
+        part.get(to, offset, length);
+    }
+
+    /**
+     * A source data range replaced by target bytes
+     */
+    private static class Hunk {
+        final int start;   // source position
+        final int length;  // source bytes replaced
+        final byte[] bytes; // target bytes
+
+        Hunk(int start, int length, byte[] bytes) {
+            this.start = start;
+            this.length = length;
+            this.bytes = bytes;
+        }
+    }
+}
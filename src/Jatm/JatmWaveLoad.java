@@ -16,8 +16,10 @@
  */
 package Jatm;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.UnsupportedAudioFileException;
@@ -149,7 +151,19 @@ public class JatmWaveLoad {
         return filterOption;
     }
 
+    /**
+     * Supplies already measured pulses instead of audio samples
+     */
+    public interface PulseSource {
+        /**
+         * Get next high level pulse width
+         * @return pulse width in samples, negative at end of pulses
+         */
+        int nextPulse();
+    }
+
     // ====================== Audio File data ==============================
+    private PulseSource pulseIn;      // Pulse input, replaces audio stream
     private AudioInputStream audioIn; // Audio inpurt stream
     private boolean eof;              // End of File Flag
     private byte[] dataFrame;         // Buffer to read a single audio frame
@@ -178,12 +192,32 @@ public class JatmWaveLoad {
         try {  // Open Audio input stream
             audioIn = AudioSystem.getAudioInputStream(new File(filename));
         } catch (UnsupportedAudioFileException | IOException ex) {
-            System.out.println("ERROR: Load WAV file - open failed");
             return true; // Flag a problem
         }
+        return openAudio();
+    }
 
+    /**
+     * Open Audio input Stream from a byte stream, such as an archive entry
+     * @param in WAV file contents. Closed by close()
+     * @return true if an error occur
+     */
+    public boolean open(InputStream in) {
+        eof = true; // Stream not Openned. Flag EOF
+        try {  // Audio format detection needs mark and reset
+            audioIn = AudioSystem.getAudioInputStream(new BufferedInputStream(in));
+        } catch (UnsupportedAudioFileException | IOException ex) {
+            return true; // Flag a problem
+        }
+        return openAudio();
+    }
+
+    /**
+     * Set up sample decoding for the opened Audio input stream
+     * @return true if an error occur
+     */
+    private boolean openAudio() {
         if(audioIn == null) {
-            System.out.println("ERROR: Load WAV file - null stream");
             return true; // Flag a problem
         }
 
@@ -194,13 +228,7 @@ public class JatmWaveLoad {
         bytesPerSample = bitsPerSample / 8;
         dataFrameSize = audioIn.getFormat().getFrameSize();
 
-        // Set Time scale based on Audio Sample Rate
-        float timeScale  = (float)Z80_CLOCK / sampleRate;
-        pulseTolerance  = (int)(0.5F+(float)ERROR_T / timeScale);
-        pilotPulse = (int)(0.5F+(float)PILOT_PULSE_T / timeScale);
-        syncPulse  = (int)(0.5F+(float)SYNC_T  / timeScale);
-        bit0Pulse  = (int)(0.5F+(float)BIT0_T  / timeScale);
-        bit1Pulse  = (int)(0.5F+(float)BIT1_T  / timeScale);
+        setTimeScale(sampleRate);
 
         // Set Level Scale based on sample size in bits;
         switch(bitsPerSample) {
@@ -217,7 +245,6 @@ public class JatmWaveLoad {
 
         dataFrame = new byte[dataFrameSize]; // Allocate Buffer for a single sample frame
         if(dataFrame == null) {
-            System.out.println("ERROR: Load WAV file - null frame buffer");
             return true; // error allocationg frame buffer
         }
 
@@ -236,18 +263,38 @@ public class JatmWaveLoad {
         return false;
     }
 
+    /**
+     * Open a pulse source. Pulses skip level detection and filtering
+     * and go straight to the block loader
+     * @param source pulse widths supplier
+     * @param rate pulse width unit in samples per second
+     * @return true if an error occur
+     */
+    public boolean open(PulseSource source, float rate) {
+        eof = true; // Not openned. Flag EOF
+        if(source == null || rate <= 0F) {
+            return true; // Flag a problem
+        }
+        pulseIn = source;
+        sampleRate = rate;
+        setTimeScale(sampleRate);
+        eof = false;
+        return false;
+    }
+
     /**
      * Close Audio input Stream
      */
     public void close() {
         eof = true; // End of file
+        pulseIn = null;
         if(audioIn == null) { // no stream to close!
             return;
         }
         try {
             audioIn.close();
         } catch (IOException ex) {
-            System.out.println("ERROR: Load WAV file - close error");
+            // nothing left to release
         }
     }
 
@@ -261,7 +308,7 @@ public class JatmWaveLoad {
         byte[] dataBuffer;
         JaTapeBlock headerBlock;
 
-        if(eof || (audioIn == null)) { // EOF or No stream to load from
+        if(eof || (audioIn == null && pulseIn == null)) { // EOF or No stream to load from
             return null;
         }
 
@@ -292,6 +339,19 @@ public class JatmWaveLoad {
 
     //====================== Private Methods ============================
 
+    /**
+     * Scale pulse widths to the sample rate
+     * @param rate samples per second
+     */
+    private void setTimeScale(float rate) {
+        float timeScale  = (float)Z80_CLOCK / rate;
+        pulseTolerance  = (int)(0.5F+(float)ERROR_T / timeScale);
+        pilotPulse = (int)(0.5F+(float)PILOT_PULSE_T / timeScale);
+        syncPulse  = (int)(0.5F+(float)SYNC_T  / timeScale);
+        bit0Pulse  = (int)(0.5F+(float)BIT0_T  / timeScale);
+        bit1Pulse  = (int)(0.5F+(float)BIT1_T  / timeScale);
+    }
+
     /**
      * search and load a tape file block
      * @param block byte array to hold the loaded block bytes
@@ -387,6 +447,20 @@ public class JatmWaveLoad {
     private int getPulseWidth() {
         int width = 0; // Pulse Width in audio sample counts
 
+        if(Thread.currentThread().isInterrupted()) { // Loading cancelled
+            eof = true;
+            return 0;
+        }
+
+        if(pulseIn != null) { // Pulses already measured
+            width = pulseIn.nextPulse();
+            if(width < 0) {
+                eof = true; // No more pulses
+                return 0;
+            }
+            return width;
+        }
+
         while(detectLevel(getSample()) < 1) { // Seek for a Pulse Rising Edge
             if (eof) { // check for EOF
                 return 0;
@@ -447,8 +521,7 @@ public class JatmWaveLoad {
                 return 0F;
             }
         } catch (IOException ex) {
-            eof = true; // Flag EOF
-            System.out.println("Read Sample Frame error");
+            eof = true; // Read error: Flag EOF
             return 0F;
         }
 
@@ -16,9 +16,17 @@
  */
 package Jatm;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 /**
  *
@@ -45,14 +53,20 @@ public class JatmWaveSave {
     // WAV file parameters
     private RandomAccessFile audioFile;
     private long subChunk2Size;  // count data bytes written
+    private boolean writeError;  // a write failed, reported on close
 
-    // Wave Tables
-    private byte[] waveSilence; // Leading silence
-    private byte[] wavePilot;   // pilotCycle tone
-    private byte[] waveSync;    // Sync Pulses
-    private byte[] waveBit0;    // Bit 0 wave
-    private byte[] waveBit1;    // Bit 1 wave
-    private byte[] waveEndMark; // End Mark pulses
+    // Wave Cycles
+    private static final int SILENCE  = 0; // Leading silence
+    private static final int PILOT    = 1; // pilotCycle tone
+    private static final int SYNC     = 2; // Sync Pulses
+    private static final int BIT0     = 3; // Bit 0 wave
+    private static final int BIT1     = 4; // Bit 1 wave
+    private static final int END_MARK = 5; // End Mark pulses
+
+    // Wave Tables, indexed by wave cycle
+    private final byte[][] waveTable = new byte[6][];
+    // Cycle hi and lo pulse widths in samples, indexed by wave cycle
+    private final int[][] cyclePulses = new int[6][];
 
     private int sampleFrameSize, bytesPerSample;
 
@@ -120,68 +134,25 @@ public class JatmWaveSave {
     public boolean open(String filename) {
         // Initialize WAV File Parameters
         subChunk2Size = 0;   // count data written
-        bytesPerSample = bitsOption / 8;
-        sampleFrameSize = channelOption * bytesPerSample; // Bytes in a data frame
-        long chunkSize = 32;
-        long subChunk1Size = 16;
-        long byteRate = sampleRateOption * sampleFrameSize;
+        writeError = false;
+        createWaveTables();
 
         // Create WAV File
         try {
             audioFile = new RandomAccessFile(new File(filename),"rw");
-            // Write WAV file header
-            audioFile.writeBytes("RIFF");                    // 00: 4 bytes, Chunk ID
-            audioFile.write(to4bArray(chunkSize));           // 04: 4 bytes, Chunk Size = SubChunk2Size + 36
-            audioFile.writeBytes("WAVE");                    // 08: 4 bytes, File Format
-            audioFile.writeBytes("fmt ");                    // 12: 4 bytes, SubChunk1 ID
-            audioFile.write(to4bArray(subChunk1Size));       // 16: 4 bytes, SubChunk1 Size
-            audioFile.write(to2bArray(1));                   // 20: 2 bytes, Audio Format (PCM)
-            audioFile.write(to2bArray(channelOption));       // 22: 2 bytes, Num Channels
-            audioFile.write(to4bArray(sampleRateOption));    // 24: 4 bytes, Sample Rate
-            audioFile.write(to4bArray(byteRate));            // 28: 4 bytes, Byte Rate
-            audioFile.write(to2bArray(sampleFrameSize));     // 32: 2 bytes, Block Align
-            audioFile.write(to2bArray(bitsOption));          // 34: 2 bytes, Bits per Sample
-            audioFile.writeBytes("data");                    // 36: 4 bytes, SubChunk2 ID
-            audioFile.write(to4bArray(subChunk2Size), 0, 4); // 40: 4 bytes, SubChunk2 Size
+            audioFile.write(waveHeader(subChunk2Size)); // sizes updated on close
         } catch (IOException ex) {
-            System.out.println("ERROR: Cannot save WAV file");
             return true; // Flag an error
         }
-
-        // Calculte hi and lo levels according to sample size option
-        double max;
-        long hi, lo, offset = 0;
-        switch(bitsOption) {
-            case 8:  max = 127.0; offset = 128; break;
-            case 16: max = 32767.0; break;
-            case 24: max = 8388607.0; break;
-            case 32: max = 2147483645.0; break;
-            default:  max = 32767.0; break;
-        }
-        max *= (double)levelOption / 100.0; // scaled level
-        hi = offset + (long)max; // Offset due to 8 bit option
-        lo = offset - (long)max; // Offset due to 8 bit option
-
-        // Construct Wave Tables
-        waveSilence = createWaveTable(PAUSE_T, offset, PAUSE_T, offset);
-        wavePilot = createWaveTable(PILOT_PULSE_T, hi, PILOT_PULSE_T, lo);
-        waveSync = createWaveTable(SYNC_PULSE_HI_T, hi, SYNC_PULSE_LO_T, lo);
-        waveBit0 = createWaveTable(BIT0_PULSE_HI_T, hi, BIT0_PULSE_LO_T, lo);
-        waveBit1 = createWaveTable(BIT1_PULSE_HI_T, hi, BIT1_PULSE_LO_T, lo);
-        waveEndMark = createWaveTable(END_MARK_PULSE_HI_T, hi, END_MARK_PULSE_LO_T, lo);
-
         return false; // Flag success
     }
 
-    /**
-     * Close the WAV file
-     */
     /**
      * Close the WAV file
      * @return true if an error occur
      */
     public boolean close() {
-        subChunk2Size += writeArray(waveSilence); // Write Trailing Silence
+        subChunk2Size += writeArray(waveTable[SILENCE]); // Write Trailing Silence
         try {
             // update Chunk Size
             audioFile.seek(4);  audioFile.write(to4bArray(subChunk2Size+36));
@@ -190,46 +161,257 @@ public class JatmWaveSave {
             // Close file
             audioFile.close();
         } catch (IOException ex) {
-            System.out.println("ERROR: Closing WAV file");
+            return true;
+        }
+        return writeError; // Ok if all data written
+    }
+
+    /**
+     * Stream a complete WAV file to an output stream.
+     * The audio length is computed first, so the header carries the final
+     * chunk sizes and no seeking is needed. Only the wave tables are held
+     * in memory. The stream is flushed but not closed.
+     * @param out destination stream
+     * @param list tape list
+     * @param selection indexes of tapes to save
+     * @return true if an error occur
+     */
+    public boolean save(OutputStream out, List<JaTape> list, int[] selection) {
+        createWaveTables();
+
+        // Calculate audio data length
+        long dataSize = waveTable[SILENCE].length; // Trailing Silence
+        for(int i = 0; i < selection.length; i++) {
+            dataSize += tapeSize(list.get(selection[i]));
+        }
+        if(dataSize + 36 > 0xFFFFFFFFL) {
+            return true; // RIFF sizes are 32 bits
+        }
+
+        try {
+            OutputStream buffer = new BufferedOutputStream(out);
+            buffer.write(waveHeader(dataSize));
+            WaveSink sink = cycle -> buffer.write(waveTable[cycle]);
+            for(int i = 0; i < selection.length; i++) {
+                emitTape(list.get(selection[i]), sink);
+            }
+            sink.put(SILENCE); // Trailing Silence
+            buffer.flush();
+        } catch (IOException ex) {
             return true;
         }
         return false; // Ok
     }
 
+    /**
+     * Stream a complete WAV file to a byte channel
+     * @param channel destination channel
+     * @param list tape list
+     * @param selection indexes of tapes to save
+     * @return true if an error occur
+     */
+    public boolean save(WritableByteChannel channel, List<JaTape> list, int[] selection) {
+        return save(Channels.newOutputStream(channel), list, selection);
+    }
+
+    /**
+     * Receives the square wave of a tape as pulses
+     */
+    public interface PulseSink {
+        /**
+         * A pulse of the square wave
+         * @param samples pulse width in samples at getSampleRate()
+         * @param high true for a high level pulse, false for low or silence
+         * @throws IOException
+         */
+        void pulse(int samples, boolean high) throws IOException;
+    }
+
+    /**
+     * Feed the pulses the WAV writer would produce to a pulse sink,
+     * trailing silence included. Silence is reported as low level.
+     * @param sink pulse destination
+     * @param list tape list
+     * @param selection indexes of tapes to save
+     * @throws IOException
+     */
+    public void savePulses(PulseSink sink, List<JaTape> list, int[] selection) throws IOException {
+        createWaveTables();
+        WaveSink cycles = cycle -> {
+            int[] pulses = cyclePulses[cycle];
+            sink.pulse(pulses[0], cycle != SILENCE); // hi pulse
+            sink.pulse(pulses[1], false);            // lo pulse
+        };
+        for(int i = 0; i < selection.length; i++) {
+            emitTape(list.get(selection[i]), cycles);
+        }
+        cycles.put(SILENCE); // Trailing Silence
+    }
+
     /**
      * Save a Tape in currently oppened WAV file
      * @param tape JA tape file to save
      */
     public void save(JaTape tape) {
-        // Write Tape Header
-        subChunk2Size += writeArray(waveSilence);  // Write Leading Silence
-        for(int j = 0; j < 8*PILOT_CYCLES; j++ ) { // Write Header Pilot
-            subChunk2Size += writeArray(wavePilot);
-        }
-        subChunk2Size += saveBlock(tape.getHeaderBlock()); // Write Header Block
+        write(render(tape));
+    }
 
-        // Write Tape Data
-        for(int j = 0; j < PILOT_CYCLES; j++ ) {  // Write Data Pilot
-            subChunk2Size += writeArray(wavePilot);
+    /**
+     * Append an already rendered tape audio segment to the WAV file
+     * @param segment audio segment built by render()
+     */
+    public void write(byte[] segment) {
+        subChunk2Size += writeArray(segment);
+    }
+
+    /**
+     * Calculate the audio segment size of a tape. The WAV file must be open
+     * @param tape JA tape file
+     * @return segment size in bytes
+     */
+    public long tapeSize(JaTape tape) {
+        long size = waveTable[SILENCE].length;                 // Leading Silence
+        size += (long)9*PILOT_CYCLES * waveTable[PILOT].length; // Header and Data Pilots
+        size += blockSize(tape.getHeaderBlock());              // Header Block
+        size += blockSize(tape.getDataBlock());                // Data Block
+        return size;
+    }
+
+    /**
+     * Render a tape audio segment to a byte array.
+     * Only reads the wave tables, so tapes can be rendered concurrently
+     * once the WAV file is open.
+     * @param tape JA tape file to render
+     * @return tape audio segment
+     */
+    public byte[] render(JaTape tape) {
+        final byte[] segment = new byte[(int)tapeSize(tape)];
+        final int[] index = {0};
+        try {
+            emitTape(tape, cycle -> {
+                byte[] table = waveTable[cycle];
+                System.arraycopy(table, 0, segment, index[0], table.length);
+                index[0] += table.length;
+            });
+        } catch (IOException ex) {
+            // copying to an array does not throw
         }
-        subChunk2Size += saveBlock(tape.getDataBlock()); // Write Data Block
+        return segment;
     }
 
     // ================= PRIVATE =======================
     /**
-     * save tape file block
-     * @param block block array to save
-     * @return number of bytes saved
+     * Destination of the wave cycles making up a tape
+     */
+    private interface WaveSink {
+        void put(int cycle) throws IOException;
+    }
+
+    /**
+     * Initialize sample format and build the wave tables from user options
+     */
+    private void createWaveTables() {
+        bytesPerSample = bitsOption / 8;
+        sampleFrameSize = channelOption * bytesPerSample; // Bytes in a data frame
+
+        // Calculte hi and lo levels according to sample size option
+        double max;
+        long hi, lo, offset = 0;
+        switch(bitsOption) {
+            case 8:  max = 127.0; offset = 128; break;
+            case 16: max = 32767.0; break;
+            case 24: max = 8388607.0; break;
+            case 32: max = 2147483645.0; break;
+            default:  max = 32767.0; break;
+        }
+        max *= (double)levelOption / 100.0; // scaled level
+        hi = offset + (long)max; // Offset due to 8 bit option
+        lo = offset - (long)max; // Offset due to 8 bit option
+
+        // Construct Wave Tables
+        createWaveTable(SILENCE, PAUSE_T, offset, PAUSE_T, offset);
+        createWaveTable(PILOT, PILOT_PULSE_T, hi, PILOT_PULSE_T, lo);
+        createWaveTable(SYNC, SYNC_PULSE_HI_T, hi, SYNC_PULSE_LO_T, lo);
+        createWaveTable(BIT0, BIT0_PULSE_HI_T, hi, BIT0_PULSE_LO_T, lo);
+        createWaveTable(BIT1, BIT1_PULSE_HI_T, hi, BIT1_PULSE_LO_T, lo);
+        createWaveTable(END_MARK, END_MARK_PULSE_HI_T, hi, END_MARK_PULSE_LO_T, lo);
+    }
+
+    /**
+     * Build the 44 byte WAV file header
+     * @param dataSize audio data size in bytes
+     * @return header bytes
+     */
+    private byte[] waveHeader(long dataSize) {
+        ByteBuffer h = ByteBuffer.allocate(44).order(ByteOrder.LITTLE_ENDIAN);
+        h.put("RIFF".getBytes(StandardCharsets.US_ASCII)); // 00: 4 bytes, Chunk ID
+        h.putInt((int)(dataSize + 36));                     // 04: 4 bytes, Chunk Size = SubChunk2Size + 36
+        h.put("WAVE".getBytes(StandardCharsets.US_ASCII)); // 08: 4 bytes, File Format
+        h.put("fmt ".getBytes(StandardCharsets.US_ASCII)); // 12: 4 bytes, SubChunk1 ID
+        h.putInt(16);                                       // 16: 4 bytes, SubChunk1 Size
+        h.putShort((short)1);                               // 20: 2 bytes, Audio Format (PCM)
+        h.putShort((short)channelOption);                   // 22: 2 bytes, Num Channels
+        h.putInt(sampleRateOption);                         // 24: 4 bytes, Sample Rate
+        h.putInt(sampleRateOption * sampleFrameSize);       // 28: 4 bytes, Byte Rate
+        h.putShort((short)sampleFrameSize);                 // 32: 2 bytes, Block Align
+        h.putShort((short)bitsOption);                      // 34: 2 bytes, Bits per Sample
+        h.put("data".getBytes(StandardCharsets.US_ASCII)); // 36: 4 bytes, SubChunk2 ID
+        h.putInt((int)dataSize);                            // 40: 4 bytes, SubChunk2 Size
+        return h.array();
+    }
+
+    /**
+     * Feed the wave cycles of a tape to a sink
+     * @param tape JA tape file
+     * @param sink wave cycle destination
      * @throws IOException
      */
-    private long saveBlock(byte[] block) {
-        long byteCount = 0; // byte counter
-        byteCount += writeArray(waveSync);     // Write Sync pulse
-        for(int i = 0; i < block.length; i++) { // Write block byte
-            byteCount += saveByte(block[i]);
+    private void emitTape(JaTape tape, WaveSink sink) throws IOException {
+        // Tape Header
+        sink.put(SILENCE);                          // Leading Silence
+        for(int j = 0; j < 8*PILOT_CYCLES; j++ ) {  // Header Pilot
+            sink.put(PILOT);
         }
-        byteCount += writeArray(waveEndMark);       // Write End Mark
-        return byteCount; // return WAV file bytes writen
+        emitBlock(tape.getHeaderBlock(), sink);     // Header Block
+
+        // Tape Data
+        for(int j = 0; j < PILOT_CYCLES; j++ ) {    // Data Pilot
+            sink.put(PILOT);
+        }
+        emitBlock(tape.getDataBlock(), sink);       // Data Block
+    }
+
+    /**
+     * Feed the wave cycles of a tape file block to a sink
+     * @param block block array
+     * @param sink wave cycle destination
+     * @throws IOException
+     */
+    private void emitBlock(byte[] block, WaveSink sink) throws IOException {
+        sink.put(SYNC);                             // Sync pulse
+        for(int i = 0; i < block.length; i++) {     // block bytes, hi bit first
+            byte b = block[i];
+            for(int bit = 0; bit < 8; bit++) {
+                sink.put(((b & 0x80) != 0) ? BIT1 : BIT0);
+                b <<= 1; // rotate next bit into position
+            }
+        }
+        sink.put(END_MARK);                         // End Mark
+    }
+
+    /**
+     * Calculate a tape file block audio size
+     * @param block block array
+     * @return audio size in bytes
+     */
+    private long blockSize(byte[] block) {
+        long ones = 0;
+        for(int i = 0; i < block.length; i++) { // count bits set
+            ones += Integer.bitCount(block[i] & 0xFF);
+        }
+        long zeros = 8L*block.length - ones;
+        return waveTable[SYNC].length + ones*waveTable[BIT1].length
+                + zeros*waveTable[BIT0].length + waveTable[END_MARK].length;
     }
 
     /**
@@ -242,7 +424,7 @@ public class JatmWaveSave {
         try {
             audioFile.write(array);
         } catch (IOException ex) {
-            System.out.println("ERROR: writing to WAV file.");
+            writeError = true;
             return 0;
         }
         return array.length;
@@ -250,13 +432,14 @@ public class JatmWaveSave {
 
     /**
      * create a wave cycle array: hi>lo
+     * @param cycle wave cycle index
      * @param hiLength cycle hi level
      * @param loLength cycle low level
-     * @return WAV cycle array
      */
-    private byte[] createWaveTable(int hiLength, long hiLevel, int loLength, long loLevel ) {
+    private void createWaveTable(int cycle, int hiLength, long hiLevel, int loLength, long loLevel ) {
         int hiSamples = cycles2Samples(hiLength);
         int loSamples = cycles2Samples(loLength);
+        cyclePulses[cycle] = new int[] {hiSamples, loSamples};
         int arraySize = (hiSamples + loSamples)*sampleFrameSize;
         byte[] array = new byte[arraySize];
 
@@ -267,7 +450,7 @@ public class JatmWaveSave {
         for(int i = 0; i < loSamples; i++) { // fill low level pulse
             index = setSample(array, index, loLevel);
         }
-        return array;
+        waveTable[cycle] = array;
     }
 
     /**
@@ -288,19 +471,6 @@ public class JatmWaveSave {
         return index + sampleFrameSize; // return next array position
     }
 
-    private long saveByte(byte b) {
-        long total = 0;
-        for(int i=0; i<8; i++) { // write 8 bits, hi bit first
-            if((b & 0x80) != 0) {
-                total += writeArray(waveBit1); // bit 1
-            } else {
-                total += writeArray(waveBit0); // bit 0
-            }
-            b <<= 1; // rotate next bit into position
-        }
-        return total;
-    }
-
     // ================= Miscelaneous ====================
         /**
      * convert Z80 cycles count to WAV sample count
@@ -314,15 +484,6 @@ public class JatmWaveSave {
         return (int)samples;
     }
 
-        /** Convert int to 2 byte array, little endian */
-    private byte[] to2bArray(int x) {
-        byte[] byteArray = new byte[2];
-        byteArray[0] = (byte)(x & 0xFF); // Low byte first
-        x >>>= 8;
-        byteArray[1] = (byte)(x & 0xFF); // Hight byte last
-        return byteArray;
-    }
-
     /** Convert long to 4 byte array, little endian */
     private byte[] to4bArray(long x) {
         byte[] byteArray = new byte[4];
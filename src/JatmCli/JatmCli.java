@@ -0,0 +1,934 @@
+/*
+ * JatmCli - Command line batch tool for Jupiter Ace tape files
+ *
+ * This file is part of JAtm - The Jupiter Ace tape manager.
+ *
+ * JAtm is a tool to manage Jupiter Ace tape files in several formats.
+ * Copyright (C) 2015  Ricardo Fernandes Lopes
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package JatmCli;
+
+import Jatm.JaTape;
+import Jatm.JatmFile;
+import Jatm.JatmFileFormats;
+import Jatm.JatmFileLoader;
+import Jatm.JatmLibraryArchive;
+import Jatm.JatmLibraryIndex;
+import Jatm.JatmSimilarity;
+import Jatm.JatmTapePatch;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Headless command line tool: list, validate, convert and extract tape
+ * files, keep a library index to find duplicate tapes and FORTH word
+ * definitions, find similar tapes, and make or apply patches between
+ * tape files.
+ * Inputs are files, directories (searched recursively) or glob
+ * patterns. Files are processed in parallel and reported in input order,
+ * as text or as one JSON object per line.
+ * Exit codes: 0 all files ok, 1 some file failed, 2 usage error.
+ * @author Ricardo F. Lopes
+ */
+public class JatmCli {
+    public static final int EXIT_OK     = 0; // All files processed
+    public static final int EXIT_FAILED = 1; // Some file failed or has bad CRC
+    public static final int EXIT_USAGE  = 2; // Invalid command line
+
+    private String command;
+    private String format = "tap";  // output file format extension
+    private JatmFile outFormat = JatmFileFormats.forExtension(format);
+    private Path outDir;            // output directory, null for input directory
+    private int jobs = Runtime.getRuntime().availableProcessors();
+    private boolean json;           // JSON lines output
+    private PrintStream stdout = System.out; // command output
+    private boolean force;          // overwrite existing files
+    private Path indexFile = Paths.get("jatm-library.idx"); // library index
+    private JatmLibraryIndex library; // library index, for where command
+    private double threshold = 0.5;   // least similarity, for similar command
+    private final List<String> inputs = new ArrayList<>();
+    private final Set<Path> reserved = new HashSet<>(); // output files of this run
+
+    public static void main(String[] args) {
+        System.exit(new JatmCli().run(args));
+    }
+
+    /**
+     * Run a command line
+     * @param args command line arguments
+     * @return exit code
+     */
+    public int run(String[] args) {
+        if(parseArgs(args)) {
+            usage();
+            return EXIT_USAGE;
+        }
+        stdout = System.out;
+        if(json) {
+            System.setOut(System.err); // only JSON lines on standard output
+        }
+        try {
+            return runCommand();
+        } finally {
+            System.setOut(stdout);
+        }
+    }
+
+    private int runCommand() {
+        if(command.equals("index") || command.equals("dups") || command.equals("where")
+                || command.equals("word")) {
+            library = new JatmLibraryIndex();
+            if(library.open(indexFile)) {
+                System.err.println("Error reading index " + indexFile);
+                return EXIT_FAILED;
+            }
+            if(command.equals("dups")) {
+                return duplicates();
+            }
+            if(command.equals("word")) {
+                return words();
+            }
+        }
+        if(command.equals("mkpatch")) {
+            return makePatch(Paths.get(inputs.get(0)), Paths.get(inputs.get(1)));
+        }
+        if(command.equals("patch")) {
+            return applyPatch(Paths.get(inputs.get(0)), Paths.get(inputs.get(1)));
+        }
+        List<Path> files;
+        try {
+            files = findFiles();
+        } catch (IOException ex) {
+            System.err.println("Error reading " + ex.getMessage());
+            return EXIT_USAGE;
+        }
+        if(files.isEmpty()) {
+            System.err.println("No input files found");
+            return EXIT_USAGE;
+        }
+        if(command.equals("index")) {
+            return index(files);
+        }
+        if(command.equals("similar")) {
+            return similar(files);
+        }
+
+        // Process files concurrently, report them in input order as they are done
+        int[] failed = new int[1];
+        int[] tapes = new int[1];
+        boolean cancelled = new JatmFileLoader(jobs).process(files, this::process, (index, file, report) -> {
+            if(report == null) {
+                report = new Report(file);
+                report.fail("internal error");
+            }
+            stdout.println(json ? report.toJson() : report.toText());
+            failed[0] += report.ok ? 0 : 1;
+            tapes[0] += report.tapes.size();
+        });
+        if(cancelled) {
+            return EXIT_FAILED;
+        }
+
+        if(json) {
+            stdout.println("{\"summary\":true,\"command\":" + quote(command)
+                    + ",\"files\":" + files.size() + ",\"failed\":" + failed[0]
+                    + ",\"tapes\":" + tapes[0] + "}");
+        } else {
+            stdout.println(files.size() + " files, " + tapes[0] + " tapes, " + failed[0] + " failed");
+        }
+        return (failed[0] > 0) ? EXIT_FAILED : EXIT_OK;
+    }
+
+    // ================= COMMAND LINE =======================
+    /**
+     * Parse command line
+     * @return true if invalid
+     */
+    private boolean parseArgs(String[] args) {
+        if(args.length < 1) {
+            return true;
+        }
+        command = args[0];
+        if(!Arrays.asList("list", "validate", "convert", "extract", "index", "dups", "where", "similar",
+                "word", "mkpatch", "patch").contains(command)) {
+            return true;
+        }
+        for(int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            boolean hasValue = i+1 < args.length;
+            switch(arg) {
+                case "-f":
+                case "--format":
+                    if(!hasValue) {
+                        return true;
+                    }
+                    format = args[++i].toLowerCase(Locale.ROOT);
+                    outFormat = JatmFileFormats.forExtension(format);
+                    if(outFormat == null || outFormat.isLoadOnly()) {
+                        System.err.println("Unknown format: " + format);
+                        return true;
+                    }
+                    break;
+                case "-o":
+                case "--output":
+                    if(!hasValue) {
+                        return true;
+                    }
+                    outDir = Paths.get(args[++i]);
+                    break;
+                case "-j":
+                case "--jobs":
+                    if(!hasValue || !args[i+1].matches("\\d+") || Integer.parseInt(args[i+1]) < 1) {
+                        return true;
+                    }
+                    jobs = Integer.parseInt(args[++i]);
+                    break;
+                case "-i":
+                case "--index":
+                    if(!hasValue) {
+                        return true;
+                    }
+                    indexFile = Paths.get(args[++i]);
+                    break;
+                case "-t":
+                case "--threshold":
+                    if(!hasValue || !args[i+1].matches("(0?\\.\\d+|[01](\\.0*)?)")) {
+                        return true;
+                    }
+                    threshold = Double.parseDouble(args[++i]);
+                    break;
+                case "--json":
+                    json = true;
+                    break;
+                case "--force":
+                    force = true;
+                    break;
+                default:
+                    if(arg.startsWith("-") && arg.length() > 1) {
+                        System.err.println("Unknown option: " + arg);
+                        return true;
+                    }
+                    inputs.add(arg);
+            }
+        }
+        if(command.equals("mkpatch") || command.equals("patch")) {
+            return inputs.size() != 2;
+        }
+        return inputs.isEmpty() && !command.equals("dups");
+    }
+
+    private static void usage() {
+        System.err.println("Usage: java -cp JAtm.jar JatmCli.JatmCli <command> [options] <file|dir|glob>...");
+        System.err.println("Commands:");
+        System.err.println("  list      list the tapes in each file");
+        System.err.println("  validate  check header and data CRC of every tape");
+        System.err.println("  convert   write each file in another format (-f)");
+        System.err.println("  extract   write each tape to its own file (-f), in a folder per input file");
+        System.err.println("  index     add files to the library index, or update changed files");
+        System.err.println("  dups      list tapes found more than once in the library index");
+        System.err.println("  where     list other library copies of each tape");
+        System.err.println("  word      <name>...: list library tapes defining each FORTH word, by definition");
+        System.err.println("  similar   list pairs of tapes with similar data (-t)");
+        System.err.println("  mkpatch   <source> <target>: write the patch from source to target (.jtp)");
+        System.err.println("  patch     <source> <patch.jtp>: write the patched source (-f)");
+        System.err.println("Options:");
+        System.err.println("  -f, --format EXT  output format: " + extensions() + " (default tap)");
+        System.err.println("  -o, --output DIR  output directory (default: next to input file)");
+        System.err.println("  -j, --jobs N      files processed at the same time (default: processors)");
+        System.err.println("  -i, --index FILE  library index file (default jatm-library.idx)");
+        System.err.println("  -t, --threshold X least similarity listed, 0 to 1 (default 0.5)");
+        System.err.println("      --json        one JSON object per line");
+        System.err.println("      --force       overwrite existing output files");
+        System.err.println("Directories are searched recursively for tape files and zip/gz archives.");
+        System.err.println("Quote glob patterns, e.g. 'tapes/**/*.wav'");
+        System.err.println("Exit codes: 0 ok, 1 some file failed, 2 usage error");
+    }
+
+    // ================= INPUT FILES =======================
+    /**
+     * Expand inputs to a list of files, in input order without repeats
+     */
+    private List<Path> findFiles() throws IOException {
+        Set<Path> files = new LinkedHashSet<>();
+        for (String input : inputs) {
+            if(isGlob(input)) {
+                addGlob(input, files);
+            } else {
+                Path path = Paths.get(input);
+                if(Files.isDirectory(path)) {
+                    addTree(path, null, files);
+                } else if(Files.isRegularFile(path)) {
+                    files.add(path);
+                } else {
+                    System.err.println("Not found: " + input);
+                }
+            }
+        }
+        return new ArrayList<>(files);
+    }
+
+    private static boolean isGlob(String input) {
+        return input.matches(".*[*?\\[{].*");
+    }
+
+    /**
+     * Add files matching a glob pattern, searched from its fixed leading folders
+     */
+    private static void addGlob(String pattern, Set<Path> files) throws IOException {
+        String normalized = pattern.replace('\\', '/');
+        int glob = normalized.length();
+        for(char c : "*?[{".toCharArray()) {
+            int i = normalized.indexOf(c);
+            if(i >= 0 && i < glob) {
+                glob = i;
+            }
+        }
+        int slash = normalized.lastIndexOf('/', glob);
+        Path base = (slash < 0) ? Paths.get(".") : Paths.get(normalized.substring(0, slash+1));
+        String relative = normalized.substring(slash+1);
+        if(Files.isDirectory(base)) {
+            addTree(base, FileSystems.getDefault().getPathMatcher("glob:" + relative), files);
+        }
+    }
+
+    /**
+     * Add tape files under a folder
+     * @param matcher paths relative to folder to accept, or null for known extensions
+     */
+    private static void addTree(Path dir, PathMatcher matcher, Set<Path> files) throws IOException {
+        try (Stream<Path> tree = Files.walk(dir)) {
+            tree.filter(Files::isRegularFile)
+                .filter(p -> (matcher == null) ? JatmFileFormats.forFileName(p.getFileName().toString()) != null
+                                               : matcher.matches(dir.relativize(p)))
+                .sorted()
+                .forEachOrdered(files::add);
+        }
+    }
+
+    /**
+     * Extensions of the formats that can be written
+     */
+    private static String extensions() {
+        StringBuilder list = new StringBuilder();
+        for (JatmFile f : JatmFileFormats.getFormats()) {
+            if(f.isLoadOnly()) {
+                continue;
+            }
+            list.append(list.length() > 0 ? ", " : "").append(f.getExtension());
+        }
+        return list.toString();
+    }
+
+    private static String baseName(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return (dot <= 0) ? name : name.substring(0, dot);
+    }
+
+    // ================= COMMANDS =======================
+    /**
+     * Update the library index with files
+     */
+    private int index(List<Path> files) {
+        int loaded = library.update(files);
+        if(loaded < 0) {
+            return EXIT_FAILED; // interrupted
+        }
+        if(library.save(indexFile)) {
+            System.err.println("Error writing index " + indexFile);
+            return EXIT_FAILED;
+        }
+        List<Path> failed = library.getFailedFiles();
+        for (Path file : failed) {
+            System.err.println("Error loading " + file + ", retried on next index");
+        }
+        int duplicates = library.getDuplicates().size();
+        if(json) {
+            stdout.println("{\"summary\":true,\"command\":\"index\",\"files\":" + library.getFileCount()
+                    + ",\"loaded\":" + loaded + ",\"failed\":" + failed.size() + ",\"tapes\":" + library.getTapeCount()
+                    + ",\"unique\":" + library.getUniqueCount() + ",\"duplicates\":" + duplicates
+                    + ",\"words\":" + library.getWordCount() + ",\"uniqueWords\":" + library.getUniqueWordCount() + "}");
+        } else {
+            stdout.println(library.getFileCount() + " files (" + loaded + " loaded, " + failed.size() + " failed), "
+                    + library.getTapeCount() + " tapes, " + library.getUniqueCount() + " unique, "
+                    + duplicates + " duplicated, " + library.getWordCount() + " words, "
+                    + library.getUniqueWordCount() + " definitions");
+        }
+        return failed.isEmpty() ? EXIT_OK : EXIT_FAILED;
+    }
+
+    /**
+     * List tapes found more than once in the library index
+     */
+    private int duplicates() {
+        List<List<JatmLibraryIndex.Location>> duplicates = library.getDuplicates();
+        for (List<JatmLibraryIndex.Location> copies : duplicates) {
+            JatmLibraryIndex.Location first = copies.get(0);
+            if(json) {
+                StringBuilder out = new StringBuilder();
+                out.append("{\"hash\":").append(quote(first.getHash()))
+                   .append(",\"name\":").append(quote(first.getName().trim()))
+                   .append(",\"copies\":[");
+                for(int i = 0; i < copies.size(); i++) {
+                    JatmLibraryIndex.Location copy = copies.get(i);
+                    out.append(i > 0 ? "," : "")
+                       .append("{\"file\":").append(quote(copy.getFile().toString()))
+                       .append(",\"index\":").append(copy.getIndex()+1)
+                       .append(",\"offset\":").append(copy.getOffset())
+                       .append("}");
+                }
+                stdout.println(out.append("]}"));
+            } else {
+                stdout.println(first.getName() + " " + first.getHash() + ": " + copies.size() + " copies");
+                for (JatmLibraryIndex.Location copy : copies) {
+                    stdout.println("  " + copy.getFile() + " #" + (copy.getIndex()+1)
+                            + ((copy.getOffset() >= 0) ? " offset " + copy.getOffset() : ""));
+                }
+            }
+        }
+        if(json) {
+            stdout.println("{\"summary\":true,\"command\":\"dups\",\"files\":" + library.getFileCount()
+                    + ",\"tapes\":" + library.getTapeCount() + ",\"duplicates\":" + duplicates.size() + "}");
+        } else {
+            stdout.println(library.getFileCount() + " files, " + library.getTapeCount() + " tapes, "
+                    + duplicates.size() + " duplicated");
+        }
+        return EXIT_OK;
+    }
+
+    /**
+     * List the library tapes defining each word, grouped by definition.
+     * Each definition also lists the words with the same body under
+     * other names
+     */
+    private int words() {
+        int missing = 0;
+        for (String name : inputs) {
+            List<JatmLibraryIndex.WordLocation> found = library.findWord(name);
+            if(found.isEmpty()) {
+                missing++;
+            }
+            Set<Long> definitions = new LinkedHashSet<>();
+            for (JatmLibraryIndex.WordLocation word : found) {
+                definitions.add(word.getHash());
+            }
+            if(!json) {
+                stdout.println(name + ": " + found.size() + " tapes, " + definitions.size() + " definitions");
+            }
+            for (Long hash : definitions) {
+                List<JatmLibraryIndex.WordLocation> same = library.findDefinition(hash);
+                if(json) {
+                    StringBuilder out = new StringBuilder();
+                    out.append("{\"word\":").append(quote(name))
+                       .append(",\"hash\":").append(quote(String.format("%016x", hash)))
+                       .append(",\"tapes\":[");
+                    for(int i = 0; i < same.size(); i++) {
+                        JatmLibraryIndex.WordLocation word = same.get(i);
+                        JatmLibraryIndex.Location tape = word.getTape();
+                        out.append(i > 0 ? "," : "")
+                           .append("{\"file\":").append(quote(tape.getFile().toString()))
+                           .append(",\"index\":").append(tape.getIndex()+1)
+                           .append(",\"tape\":").append(quote(tape.getName().trim()))
+                           .append(",\"name\":").append(quote(word.getName()))
+                           .append("}");
+                    }
+                    stdout.println(out.append("]}"));
+                } else {
+                    stdout.println(String.format("  %016x: %d copies", hash, same.size()));
+                    for (JatmLibraryIndex.WordLocation word : same) {
+                        JatmLibraryIndex.Location tape = word.getTape();
+                        stdout.println("    " + tape.getFile() + " #" + (tape.getIndex()+1) + " "
+                                + tape.getName() + (word.getName().equals(name) ? "" : " as " + word.getName()));
+                    }
+                }
+            }
+        }
+        return (missing > 0) ? EXIT_FAILED : EXIT_OK;
+    }
+
+    /**
+     * List pairs of similar tapes across all files
+     */
+    private int similar(List<Path> files) {
+        List<JaTape> tapes = new ArrayList<>();
+        List<String> places = new ArrayList<>(); // file and position of each tape
+        int[] failed = new int[1];
+        boolean cancelled = new JatmFileLoader(jobs).load(files, (index, file, loaded, result) -> {
+            if(result <= 0) {
+                System.err.println(file + ": load error");
+                failed[0]++;
+            }
+            for(int i = 0; i < loaded.size(); i++) {
+                tapes.add(loaded.get(i));
+                places.add(file + " #" + (i+1));
+            }
+        });
+        List<JatmSimilarity.Pair> pairs;
+        try {
+            if(cancelled) {
+                throw new InterruptedException();
+            }
+            pairs = new JatmSimilarity(jobs).findSimilar(tapes, threshold);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return EXIT_FAILED;
+        }
+        for (JatmSimilarity.Pair pair : pairs) {
+            JaTape first = tapes.get(pair.getFirst());
+            JaTape second = tapes.get(pair.getSecond());
+            if(json) {
+                stdout.println(String.format(Locale.ROOT,
+                        "{\"similarity\":%.3f,\"first\":%s,\"firstName\":%s,\"second\":%s,\"secondName\":%s}",
+                        pair.getSimilarity(), quote(places.get(pair.getFirst())), quote(first.getFilename().trim()),
+                        quote(places.get(pair.getSecond())), quote(second.getFilename().trim())));
+            } else {
+                stdout.println(String.format(Locale.ROOT, "%.3f %s %s  ~  %s %s", pair.getSimilarity(),
+                        first.getFilename(), places.get(pair.getFirst()),
+                        second.getFilename(), places.get(pair.getSecond())));
+            }
+        }
+        if(json) {
+            stdout.println("{\"summary\":true,\"command\":\"similar\",\"files\":" + files.size()
+                    + ",\"failed\":" + failed[0] + ",\"tapes\":" + tapes.size() + ",\"pairs\":" + pairs.size() + "}");
+        } else {
+            stdout.println(files.size() + " files, " + tapes.size() + " tapes, " + pairs.size()
+                    + " similar pairs, " + failed[0] + " failed");
+        }
+        return (failed[0] > 0) ? EXIT_FAILED : EXIT_OK;
+    }
+
+    /**
+     * Write the patches turning the tapes of a file into those of another
+     */
+    private int makePatch(Path source, Path target) {
+        List<JaTape> sources = new ArrayList<>();
+        List<JaTape> targets = new ArrayList<>();
+        if(load(source, sources) || load(target, targets)) {
+            return EXIT_FAILED;
+        }
+        Path output = outputDir(target).resolve(baseName(target) + ".jtp");
+        if(!force && Files.exists(output)) {
+            System.err.println("Exists: " + output);
+            return EXIT_FAILED;
+        }
+        List<JatmTapePatch> patches = JatmTapePatch.create(sources, targets);
+        if(JatmTapePatch.write(output, patches)) {
+            System.err.println("Error writing " + output);
+            return EXIT_FAILED;
+        }
+        int changed = 0;
+        int ranges = 0;
+        int bytes = 0;
+        for (JatmTapePatch patch : patches) {
+            changed += patch.isEmpty() ? 0 : 1;
+            ranges += patch.getRangeCount();
+            bytes += patch.getByteCount();
+        }
+        long size;
+        try {
+            size = Files.size(output);
+        } catch (IOException ex) {
+            size = -1;
+        }
+        if(json) {
+            stdout.println("{\"summary\":true,\"command\":\"mkpatch\",\"output\":" + quote(output.toString())
+                    + ",\"tapes\":" + patches.size() + ",\"changed\":" + changed + ",\"ranges\":" + ranges
+                    + ",\"bytes\":" + bytes + ",\"size\":" + size + "}");
+        } else {
+            stdout.println(output + ": " + patches.size() + " tapes, " + changed + " changed, "
+                    + ranges + " ranges, " + bytes + " bytes, file size " + size);
+        }
+        return EXIT_OK;
+    }
+
+    /**
+     * Patch the tapes of a file and write them in the output format
+     */
+    private int applyPatch(Path source, Path patchFile) {
+        List<JaTape> sources = new ArrayList<>();
+        if(load(source, sources)) {
+            return EXIT_FAILED;
+        }
+        List<JatmTapePatch> patches = JatmTapePatch.read(patchFile);
+        if(patches == null) {
+            System.err.println("Error reading patch " + patchFile);
+            return EXIT_FAILED;
+        }
+        List<JaTape> tapes = new ArrayList<>();
+        if(JatmTapePatch.apply(patches, sources, tapes)) {
+            System.err.println(source + ": does not match patch " + patchFile);
+            return EXIT_FAILED;
+        }
+        Report report = new Report(source);
+        report.format = JatmFileFormats.detect(source).getExtension();
+        report.addAll(tapes);
+        saveAll(outputDir(source), baseName(patchFile), tapes, report);
+        stdout.println(json ? report.toJson() : report.toText());
+        return report.ok ? EXIT_OK : EXIT_FAILED;
+    }
+
+    /**
+     * Load the tapes of a file
+     * @return true if an error occur
+     */
+    private static boolean load(Path file, List<JaTape> tapes) {
+        int result;
+        try {
+            result = JatmFileFormats.detect(file).load(file, tapes);
+        } catch (RuntimeException ex) {
+            result = -1;
+        }
+        if(result <= 0) {
+            System.err.println(file + ": load error");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Load a file and run the command on it.
+     * Commands that only read tapes open the file, so indexed formats
+     * build each tape once, as it is reported, and JTL libraries are
+     * listed from their index without decompressing any tape
+     */
+    private Report process(Path file, JatmFile inFormat) {
+        Report report = new Report(file);
+        report.format = inFormat.getExtension();
+        List<JaTape> tapes = new ArrayList<>();
+        int result;
+        try {
+            if(command.equals("convert") || command.equals("extract")) {
+                result = inFormat.load(file, tapes);
+            } else {
+                List<JaTape> opened = inFormat.open(file);
+                tapes = (opened == null) ? tapes : opened;
+                result = (opened == null) ? -1 : opened.size();
+            }
+        } catch (RuntimeException ex) {
+            result = -1;
+        }
+        if(tapes instanceof JatmLibraryArchive) {
+            process((JatmLibraryArchive) tapes, report);
+            return report;
+        }
+        report.addAll(tapes);
+        if(result <= 0) {
+            report.fail("load error");
+            return report;
+        }
+
+        switch(command) {
+            case "validate":
+                validate(report);
+                break;
+            case "where":
+                for(int i = 0; i < tapes.size(); i++) {
+                    where(i, library.find(tapes.get(i)), report);
+                }
+                break;
+            case "convert":
+                convert(file, tapes, report);
+                break;
+            case "extract":
+                extract(file, tapes, report);
+                break;
+            default: // list
+        }
+        return report;
+    }
+
+    /**
+     * Run a read only command on a JTL library from its index,
+     * without decompressing the tapes
+     */
+    private void process(JatmLibraryArchive archive, Report report) {
+        for(int i = 0; i < archive.size(); i++) {
+            report.tapes.add(new TapeInfo(archive.getName(i), archive.isDict(i),
+                    archive.getLength(i), archive.getAddress(i),
+                    archive.headerCrcOk(i), archive.dataCrcOk(i)));
+        }
+        switch(command) {
+            case "validate":
+                validate(report);
+                break;
+            case "where":
+                for(int i = 0; i < archive.size(); i++) {
+                    where(i, library.find(archive.getHash(i)), report);
+                }
+                break;
+            default: // list
+        }
+        archive.close();
+    }
+
+    private static void validate(Report report) {
+        for(int i = 0; i < report.tapes.size(); i++) {
+            if(!report.tapes.get(i).crcOk()) {
+                report.fail("bad CRC in tape " + (i+1));
+            }
+        }
+    }
+
+    private static void where(int tape, List<JatmLibraryIndex.Location> copies, Report report) {
+        for (JatmLibraryIndex.Location copy : copies) {
+            report.found.add("tape " + (tape+1) + ": " + copy.getFile()
+                    + " #" + (copy.getIndex()+1));
+        }
+    }
+
+    /**
+     * Write all tapes to one file, or one file per tape if the format
+     * holds a single tape
+     */
+    private void convert(Path file, List<JaTape> tapes, Report report) {
+        saveAll(outputDir(file), baseName(file), tapes, report);
+    }
+
+    /**
+     * Write tapes to one file named base, or to numbered files if the
+     * format holds a single tape
+     */
+    private void saveAll(Path dir, String base, List<JaTape> tapes, Report report) {
+        if(outFormat.isMultiTape() || tapes.size() == 1) {
+            save(dir.resolve(base + "." + format), tapes, allTapes(tapes.size()), report);
+        } else {
+            for(int i = 0; i < tapes.size(); i++) {
+                save(dir.resolve(base + "-" + (i+1) + "." + format), tapes, new int[] { i }, report);
+            }
+        }
+    }
+
+    /**
+     * Write each tape to its own file, named after the tape
+     */
+    private void extract(Path file, List<JaTape> tapes, Report report) {
+        Path dir = outputDir(file).resolve(baseName(file));
+        Set<String> used = new LinkedHashSet<>();
+        for(int i = 0; i < tapes.size(); i++) {
+            String name = tapes.get(i).getFilename().trim().replaceAll("[^A-Za-z0-9._-]", "_");
+            if(name.isEmpty()) {
+                name = "tape";
+            }
+            String unique = name;
+            for(int n = 2; !used.add(unique.toLowerCase(Locale.ROOT)); n++) {
+                unique = name + "-" + n; // same tape name in file
+            }
+            save(dir.resolve(unique + "." + format), tapes, new int[] { i }, report);
+        }
+    }
+
+    private Path outputDir(Path file) {
+        if(outDir != null) {
+            return outDir;
+        }
+        Path parent = file.toAbsolutePath().getParent();
+        return (parent == null) ? Paths.get(".") : parent;
+    }
+
+    private static int[] allTapes(int count) {
+        int[] selection = new int[count];
+        for(int i = 0; i < count; i++) {
+            selection[i] = i;
+        }
+        return selection;
+    }
+
+    private void save(Path target, List<JaTape> tapes, int[] selection, Report report) {
+        if(reserve(target, report)) {
+            return;
+        }
+        try {
+            Files.createDirectories(target.toAbsolutePath().getParent());
+        } catch (IOException ex) {
+            report.fail("cannot create folder for " + target);
+            return;
+        }
+        if(outFormat.save(target, tapes, selection) <= 0) {
+            report.fail("save error: " + target);
+            return;
+        }
+        report.outputs.add(target.toString());
+    }
+
+    /**
+     * Claim an output file for one input, so parallel inputs mapped to
+     * the same output name do not overwrite each other
+     * @return true if not free
+     */
+    private boolean reserve(Path target, Report report) {
+        synchronized(reserved) {
+            if(!reserved.add(target.toAbsolutePath().normalize())) {
+                report.fail("same output as another input: " + target);
+                return true;
+            }
+            if(!force && Files.exists(target)) {
+                report.fail("exists: " + target);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // ================= REPORT =======================
+    /**
+     * Tape details shown in reports
+     */
+    private static class TapeInfo {
+        final String name;
+        final boolean dict;
+        final int length;
+        final int address;
+        final boolean headerCrc;
+        final boolean dataCrc;
+
+        TapeInfo(String name, boolean dict, int length, int address, boolean headerCrc, boolean dataCrc) {
+            this.name = name;
+            this.dict = dict;
+            this.length = length;
+            this.address = address;
+            this.headerCrc = headerCrc;
+            this.dataCrc = dataCrc;
+        }
+
+        TapeInfo(JaTape tape) {
+            this(tape.getFilename(), tape.isDict(), tape.getParameter(JaTape.LENGTH),
+                    tape.getParameter(JaTape.ADDRESS), tape.headerCrcOk(), tape.dataCrcOk());
+        }
+
+        boolean crcOk() {
+            return headerCrc && dataCrc;
+        }
+    }
+
+    /**
+     * Outcome of one input file
+     */
+    private static class Report {
+        final Path file;
+        final List<TapeInfo> tapes = new ArrayList<>();
+        final List<String> outputs = new ArrayList<>();
+        final List<String> errors = new ArrayList<>();
+        final List<String> found = new ArrayList<>();   // library copies
+        String format = "";  // detected input format
+        boolean ok = true;
+
+        Report(Path file) {
+            this.file = file;
+        }
+
+        void fail(String error) {
+            ok = false;
+            errors.add(error);
+        }
+
+        void addAll(List<JaTape> list) {
+            for (JaTape tape : list) {
+                tapes.add(new TapeInfo(tape));
+            }
+        }
+
+        String toText() {
+            StringBuilder out = new StringBuilder();
+            out.append(file).append(": ").append(format).append(", ")
+               .append(tapes.size()).append(" tapes")
+               .append(ok ? "" : ", FAILED");
+            for(int i = 0; i < tapes.size(); i++) {
+                TapeInfo tape = tapes.get(i);
+                out.append(String.format("%n  %3d %s %-10s length %5d address %5d crc %s",
+                        i+1, tape.dict ? "dict" : " byt", tape.name, tape.length, tape.address,
+                        tape.crcOk() ? "ok" : "BAD"));
+            }
+            for (String output : outputs) {
+                out.append(String.format("%n  -> %s", output));
+            }
+            for (String copy : found) {
+                out.append(String.format("%n  = %s", copy));
+            }
+            for (String error : errors) {
+                out.append(String.format("%n  error: %s", error));
+            }
+            return out.toString();
+        }
+
+        String toJson() {
+            StringBuilder out = new StringBuilder();
+            out.append("{\"file\":").append(quote(file.toString()))
+               .append(",\"format\":").append(quote(format))
+               .append(",\"ok\":").append(ok)
+               .append(",\"tapes\":[");
+            for(int i = 0; i < tapes.size(); i++) {
+                TapeInfo tape = tapes.get(i);
+                out.append(i > 0 ? "," : "")
+                   .append("{\"name\":").append(quote(tape.name.trim()))
+                   .append(",\"type\":").append(quote(tape.dict ? "dict" : "byt"))
+                   .append(",\"length\":").append(tape.length)
+                   .append(",\"address\":").append(tape.address)
+                   .append(",\"headerCrc\":").append(tape.headerCrc)
+                   .append(",\"dataCrc\":").append(tape.dataCrc)
+                   .append("}");
+            }
+            out.append("],\"outputs\":").append(quoteAll(outputs))
+               .append(",\"found\":").append(quoteAll(found))
+               .append(",\"errors\":").append(quoteAll(errors))
+               .append("}");
+            return out.toString();
+        }
+    }
+
+    private static String quoteAll(List<String> items) {
+        StringBuilder out = new StringBuilder("[");
+        for(int i = 0; i < items.size(); i++) {
+            out.append(i > 0 ? "," : "").append(quote(items.get(i)));
+        }
+        return out.append("]").toString();
+    }
+
+    /**
+     * JSON string literal
+     */
+    private static String quote(String text) {
+        StringBuilder out = new StringBuilder("\"");
+        for(char c : text.toCharArray()) {
+            switch(c) {
+                case '"':  out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                default:
+                    if(c < 0x20 || c > 0x7E) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        return out.append('"').toString();
+    }
+}
@@ -22,6 +22,7 @@ package JatmUI;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  *
@@ -66,13 +67,18 @@ public final class CharacterSet {
     }
     
     public void load(byte[] cs, int offset) { // load a character set
+        load(ByteBuffer.wrap(cs), offset);
+    }
+
+    public void load(ByteBuffer cs, int offset) { // load a character set view
         // initialize Char Set to default ROM char set
         charSet = romCharacters.clone();
         // overwrite new data into default Char Set
-        for(int i = 0; i < cs.length; i++) {
-            if (i+offset*8 < charSet.length) {
-                charSet[i+offset*8] = cs[i];
-            }
+        int start = offset*8;
+        if (start >= 0 && start < charSet.length) {
+            ByteBuffer src = cs.duplicate();
+            src.position(0);
+            src.get(charSet, start, Math.min(src.remaining(), charSet.length - start));
         }
         drawCharacters();  
     }
@@ -17,12 +17,17 @@
 package JatmUI;
 
 import Jatm.JaTape;
+import Jatm.JatmDataDiff;
+import Jatm.JatmDictDiff;
+import java.util.List;
 
 /**
  *
  * @author Ricardo
  */
 public class CompareDialog extends javax.swing.JDialog {
+    private static final int MAX_RANGES_SHOWN = 200; // data differences listed
+    private static final int BYTES_SHOWN = 4;        // bytes listed per range
 
     /**
      * Creates new form CompareDialog
@@ -118,8 +123,103 @@ public class CompareDialog extends javax.swing.JDialog {
         compareTextArea.append(String.format("                   %.1f%%\t%.1f%%",
                 compareBlocks(t1.getHeaderBlock(),t2.getHeaderBlock()),
                 compareBlocks(t1.getDataBlock(),t2.getDataBlock()) ));
+        compareData(t1, t2);
+        if(t1.isDict() && t2.isDict()) {
+            compareWords(t1, t2);
+        }
     }
-    
+
+    /**
+     * List words added, removed or changed between Dictionary files.
+     * Changed words are listed with both definitions
+     */
+    private void compareWords(JaTape t1, JaTape t2) {
+        JatmDictDiff diff = new JatmDictDiff(t1, t2);
+        List<JatmDictDiff.Change> changes = diff.getChanges();
+
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("\nWord Differences: %d  (%d words unchanged)\n",
+                changes.size(), diff.getUnchangedCount()));
+        int shown = Math.min(changes.size(), MAX_RANGES_SHOWN);
+        for(int i = 0; i < shown; i++) {
+            JatmDictDiff.Change c = changes.get(i);
+            switch(c.getKind()) {
+                case ADDED:
+                    text.append("  + ").append(c.getName()).append("\n");
+                    break;
+                case REMOVED:
+                    text.append("  - ").append(c.getName()).append("\n");
+                    break;
+                default:
+                    text.append("  # ").append(c.getName()).append("\n");
+                    text.append(indent(diff.getFirst().decompile(c.getBefore()), "    < "));
+                    text.append(indent(diff.getSecond().decompile(c.getAfter()), "    > "));
+            }
+        }
+        if(shown < changes.size()) {
+            text.append(String.format("  ... %d more\n", changes.size() - shown));
+        }
+        compareTextArea.append(text.toString());
+    }
+
+    private static String indent(String code, String prefix) {
+        StringBuilder out = new StringBuilder();
+        for (String line : code.split("\n")) {
+            out.append(prefix).append(line).append("\n");
+        }
+        return out.toString();
+    }
+
+    /**
+     * List data block differing ranges at their Ace addresses.
+     * Inserted or deleted bytes are aligned, so a shifted part is not
+     * shown as changed
+     */
+    private void compareData(JaTape t1, JaTape t2) {
+        byte[] d1 = t1.getData();
+        byte[] d2 = t2.getData();
+        int base1 = t1.getParameter(JaTape.ADDRESS);
+        int base2 = t2.getParameter(JaTape.ADDRESS);
+        JatmDataDiff diff = new JatmDataDiff(d1, d2);
+        List<JatmDataDiff.Range> ranges = diff.getRanges();
+
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("\n\nData Differences: %d  (%d of %d bytes equal)\n",
+                ranges.size(), diff.getEqualCount(), d1.length));
+        int shown = Math.min(ranges.size(), MAX_RANGES_SHOWN);
+        for(int i = 0; i < shown; i++) {
+            JatmDataDiff.Range r = ranges.get(i);
+            text.append(String.format("  %s\t%s\n",
+                    range(d1, base1, r.getStartA(), r.getLengthA()),
+                    range(d2, base2, r.getStartB(), r.getLengthB())));
+        }
+        if(shown < ranges.size()) {
+            text.append(String.format("  ... %d more\n", ranges.size() - shown));
+        }
+        compareTextArea.append(text.toString());
+    }
+
+    /**
+     * Format a data range as address, size and its first bytes
+     */
+    private String range(byte[] data, int base, int start, int length) {
+        StringBuilder s = new StringBuilder();
+        if(length == 0) {
+            s.append(String.format("%04Xh       ", (base + start) & 0xFFFF));
+        } else {
+            s.append(String.format("%04Xh-%04Xh ", (base + start) & 0xFFFF,
+                    (base + start + length - 1) & 0xFFFF));
+        }
+        s.append(String.format("%5d:", length));
+        for(int i = 0; i < Math.min(length, BYTES_SHOWN); i++) {
+            s.append(String.format(" %02X", data[start + i] & 0xFF));
+        }
+        if(length > BYTES_SHOWN) {
+            s.append(" ..");
+        }
+        return s.toString();
+    }
+
     private double compareBlocks(byte[] b1, byte[] b2) {
         int size1 = b1.length;
         int size2 = b2.length;
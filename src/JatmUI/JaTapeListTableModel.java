@@ -1,83 +1,243 @@
-/*
- * This file is part of JAtm - The Jupiter Ace tape manager.
- *
- * JAtm is a tool to manage Jupiter Ace tape files in several formats.
- * Copyright (C) 2015  Ricardo Fernandes Lopes
- *
- * This program is free software: you can redistribute it and/or modify
- * it under the terms of the GNU General Public License as published by
- * the Free Software Foundation, either version 3 of the License, or
- * (at your option) any later version.
- *
- * This program is distributed in the hope that it will be useful,
- * but WITHOUT ANY WARRANTY; without even the implied warranty of
- * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
- * GNU General Public License for more details.
- *
- * You should have received a copy of the GNU General Public License
- * along with this program.  If not, see <http://www.gnu.org/licenses/>.
- */
-package JatmUI;
-
-import Jatm.JaTape;
-import java.util.List;
-import javax.swing.ImageIcon;
-import javax.swing.table.AbstractTableModel;
-
-public class JaTapeListTableModel extends AbstractTableModel {
-
-    // ------------------ STATIC --------------------
-    private static final ImageIcon dictIcon, bytIcon, goodCrcIcon, badCrcIcon;
-    static{
-        dictIcon    = new ImageIcon(JaTapeListTableModel.class.getResource("resources/book.png"));
-        bytIcon     = new ImageIcon(JaTapeListTableModel.class.getResource("resources/cog.png"));
-        goodCrcIcon = new ImageIcon(JaTapeListTableModel.class.getResource("resources/ok.png"));
-        badCrcIcon  = new ImageIcon(JaTapeListTableModel.class.getResource("resources/error.png"));
-    }
-    // ----------------------------------------------
-
-    private List<JaTape> db;
-    private final String[] columnNames;
-
-    public JaTapeListTableModel(List<JaTape> db) {
-        this.db = db;
-        columnNames = new String[]{"CRC","Type","Name","Size","Address"};
-    }
-
-    public void setDb(List<JaTape> db) {
-        this.db = db;
-    }
-
-    @Override
-    public int getColumnCount() {
-        return columnNames.length;
-    }
-
-    @Override
-    public int getRowCount() {
-            return db.size();
-    }
-
-    @Override
-    public String getColumnName(int col) {
-        return columnNames[col];
-    }
-
-    @Override
-    public Class getColumnClass(int c) {
-        return getValueAt(0, c).getClass();
-    }
-
-    @Override
-    public Object getValueAt(int row, int col) {
-        JaTape tapeFile = db.get(row);
-        switch(col) {
-            case 0: return tapeFile.crcOk() ? goodCrcIcon : badCrcIcon;
-            case 1: return tapeFile.isDict() ? dictIcon : bytIcon;
-            case 2: return tapeFile.getFilename();
-            case 3: return tapeFile.getParameter(JaTape.LENGTH);
-            case 4: return tapeFile.getParameter(JaTape.ADDRESS);
-        }
-        return null;
-    }
-}
+/*
+ * This file is part of JAtm - The Jupiter Ace tape manager.
+ *
+ * JAtm is a tool to manage Jupiter Ace tape files in several formats.
+ * Copyright (C) 2015  Ricardo Fernandes Lopes
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package JatmUI;
+
+import Jatm.JaTape;
+import Jatm.JaTapeListOrder;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+import javax.swing.ImageIcon;
+import javax.swing.RowFilter;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.TableRowSorter;
+
+public class JaTapeListTableModel extends AbstractTableModel {
+
+    // ------------------ STATIC --------------------
+    private static final ImageIcon dictIcon, bytIcon, goodCrcIcon, badCrcIcon;
+    static{
+        dictIcon    = new ImageIcon(JaTapeListTableModel.class.getResource("resources/book.png"));
+        bytIcon     = new ImageIcon(JaTapeListTableModel.class.getResource("resources/cog.png"));
+        goodCrcIcon = new ImageIcon(JaTapeListTableModel.class.getResource("resources/ok.png"));
+        badCrcIcon  = new ImageIcon(JaTapeListTableModel.class.getResource("resources/error.png"));
+    }
+    private static final Class<?>[] columnClasses = {
+        ImageIcon.class, ImageIcon.class, String.class, Integer.class, Integer.class
+    };
+
+    // File type filter options
+    public static final int ALL_FILES  = 0;
+    public static final int DICT_FILES = 1;
+    public static final int BYT_FILES  = 2;
+    // ----------------------------------------------
+
+    private List<JaTape> db;
+    private final String[] columnNames;
+    private final Map<JaTape, Row> rowCache; // column values of each tape
+
+    public JaTapeListTableModel(List<JaTape> db) {
+        this.db = db;
+        columnNames = new String[]{"CRC","Type","Name","Size","Address"};
+        rowCache = new WeakHashMap<>(); // removed tapes are dropped
+    }
+
+    public void setDb(List<JaTape> db) {
+        this.db = db;
+        rowCache.clear();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columnNames.length;
+    }
+
+    @Override
+    public int getRowCount() {
+            return db.size();
+    }
+
+    @Override
+    public String getColumnName(int col) {
+        return columnNames[col];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int c) {
+        return columnClasses[c];
+    }
+
+    @Override
+    public Object getValueAt(int row, int col) {
+        Row r = getRow(row);
+        switch(col) {
+            case 0: return r.crcOk ? goodCrcIcon : badCrcIcon;
+            case 1: return r.dict ? dictIcon : bytIcon;
+            case 2: return r.name;
+            case 3: return r.size;
+            case 4: return r.address;
+        }
+        return null;
+    }
+
+    // Cached column values of a row, recalculated if its tape changed
+    private Row getRow(int index) {
+        JaTape tape = db.get(index);
+        Row r = rowCache.get(tape);
+        if(r == null || r.version != tape.getVersion()) {
+            r = new Row(tape);
+            rowCache.put(tape, r);
+        }
+        return r;
+    }
+
+    // ------------------ SORT & FILTER --------------------
+
+    // Row sorter: icon columns sort good CRC and dictionaries first.
+    // Updated rows are sorted and filtered again, as moves and edits are
+    // notified as row updates
+    public TableRowSorter<JaTapeListTableModel> createRowSorter() {
+        TableRowSorter<JaTapeListTableModel> sorter = new TableRowSorter<>(this);
+        sorter.setSortsOnUpdates(true);
+        Comparator<ImageIcon> iconOrder = new Comparator<ImageIcon>() {
+            @Override
+            public int compare(ImageIcon a, ImageIcon b) {
+                return Integer.compare(iconRank(a), iconRank(b));
+            }
+        };
+        sorter.setComparator(0, iconOrder);
+        sorter.setComparator(1, iconOrder);
+        sorter.setComparator(2, String.CASE_INSENSITIVE_ORDER);
+        return sorter;
+    }
+
+    private static int iconRank(ImageIcon icon) {
+        return (icon == goodCrcIcon || icon == dictIcon) ? 0 : 1;
+    }
+
+    /**
+     * Row filter on cached values
+     * @param text name substring, case insensitive. Empty for any name
+     * @param type ALL_FILES, DICT_FILES or BYT_FILES
+     * @param minAddress lowest file address
+     * @param maxAddress highest file address
+     * @return row filter
+     */
+    public RowFilter<JaTapeListTableModel, Integer> createFilter(String text,
+            final int type, final int minAddress, final int maxAddress) {
+        final String key = text.toLowerCase(Locale.ROOT);
+        return new RowFilter<JaTapeListTableModel, Integer>() {
+            @Override
+            public boolean include(Entry<? extends JaTapeListTableModel, ? extends Integer> entry) {
+                Row r = getRow(entry.getIdentifier());
+                if((type == DICT_FILES && !r.dict) || (type == BYT_FILES && r.dict)) {
+                    return false;
+                }
+                if(r.address < minAddress || r.address > maxAddress) {
+                    return false;
+                }
+                return key.isEmpty() || r.lowerName.contains(key);
+            }
+        };
+    }
+
+    // Column values of a tape, and the tape version they came from
+    private static class Row {
+        final long version;
+        final boolean crcOk;
+        final boolean dict;
+        final String name;
+        final String lowerName; // filter key
+        final int size;
+        final int address;
+
+        Row(JaTape tape) {
+            version = tape.getVersion();
+            crcOk = tape.crcOk();
+            dict = tape.isDict();
+            name = tape.getFilename();
+            lowerName = name.toLowerCase(Locale.ROOT);
+            size = tape.getParameter(JaTape.LENGTH);
+            address = tape.getParameter(JaTape.ADDRESS);
+        }
+    }
+
+    // ------------------ BULK EDIT --------------------
+    // Selections are ascending row lists. Only the changed rows are notified
+
+    public void append(List<JaTape> tapes) {
+        if(tapes.isEmpty()) {
+            return;
+        }
+        int first = db.size();
+        db.addAll(tapes);
+        fireTableRowsInserted(first, db.size()-1);
+    }
+
+    public int[] moveUp(int[] rows) {
+        return fireMoved(rows, JaTapeListOrder.moveUp(db, rows));
+    }
+
+    public int[] moveDown(int[] rows) {
+        return fireMoved(rows, JaTapeListOrder.moveDown(db, rows));
+    }
+
+    public int[] moveTop(int[] rows) {
+        return fireMoved(rows, JaTapeListOrder.moveTop(db, rows));
+    }
+
+    public int[] moveBottom(int[] rows) {
+        return fireMoved(rows, JaTapeListOrder.moveBottom(db, rows));
+    }
+
+    // Notify tapes edited in place
+    public void fireTapesUpdated(int[] rows) {
+        if(rows.length > 0) {
+            fireTableRowsUpdated(rows[0], rows[rows.length-1]);
+        }
+    }
+
+    // Remove each run of selected rows, last run first, so the positions
+    // of the runs still to be notified do not change
+    public void remove(int[] rows) {
+        int end = rows.length - 1;
+        while(end >= 0) {
+            int start = end;
+            while(start > 0 && rows[start-1] == rows[start] - 1) {
+                start--;
+            }
+            db.subList(rows[start], rows[end] + 1).clear();
+            fireTableRowsDeleted(rows[start], rows[end]);
+            end = start - 1;
+        }
+    }
+
+    // Notify rows between first and last position of old and new selection
+    private int[] fireMoved(int[] rows, int[] moved) {
+        if(moved != rows) {
+            int first = Math.min(rows[0], moved[0]);
+            int last = Math.max(rows[rows.length-1], moved[moved.length-1]);
+            fireTableRowsUpdated(first, last);
+        }
+        return moved;
+    }
+}
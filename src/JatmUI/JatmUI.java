@@ -21,12 +21,10 @@
 package JatmUI;
 
 import Jatm.JaTape;
-import Jatm.JatmFileHex;
-import Jatm.JatmFileJac;
-import Jatm.JatmFileBin;
-import Jatm.JatmFileTap;
+import Jatm.JaTapeHistory;
+import Jatm.JatmFileFormats;
+import Jatm.JatmFileLoader;
 import Jatm.JatmFile;
-import Jatm.JatmFileWav;
 import java.awt.Cursor;
 import java.awt.Desktop;
 import java.io.File;
@@ -37,16 +35,29 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.ImageIcon;
 import javax.swing.JDialog;
+import javax.swing.JComboBox;
 import javax.swing.JFileChooser;
+import javax.swing.JLabel;
 import javax.swing.JOptionPane;
+import javax.swing.JTextField;
+import javax.swing.JToolBar;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingWorker;
 import javax.swing.UIManager;
 import javax.swing.UnsupportedLookAndFeelException;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.filechooser.FileFilter;
+import javax.swing.table.TableRowSorter;
 
 /**
  * Jupiter Ace tape manager application GUI main class
@@ -57,16 +68,13 @@ public class JatmUI extends javax.swing.JFrame {
 
     List<JaTape> jaTapeList;                    // Tape Files List
     JaTapeListTableModel tapeListTableModel;    // GUI List Table
-    JatmFileTap fileTap;                        // TAP tape
-    JatmFileJac fileJac;                        // JAC tape
-    JatmFileBin fileBin;                        // BIN tape
-    JatmFileHex fileHex;                        // HEX tape
-    JatmFileWav fileWav;                        // WAV tape
-    FileFilter fileFilterTap;
-    FileFilter fileFilterJac;
-    FileFilter fileFilterBin;
-    FileFilter fileFilterHex;
-    FileFilter fileFilterWav;
+    JaTapeHistory history;                      // Undo/Redo history
+    TableRowSorter<JaTapeListTableModel> tapeListSorter; // GUI List sort and filter
+    JTextField filterNameField;                 // Filter: name substring
+    JComboBox<String> filterTypeBox;            // Filter: file type
+    JTextField filterFromField;                 // Filter: lowest address
+    JTextField filterToField;                   // Filter: highest address
+    Map<FileFilter, JatmFile> fileFilters;      // File Chooser filter formats
     JFileChooser jatmFileChooser;               // File Chooser Filter
     ImageIcon jatmIcon;                         // Application Title Icon
 
@@ -86,30 +94,24 @@ public class JatmUI extends javax.swing.JFrame {
         jatmIcon = new ImageIcon("src/JatmUI/resources/jatm.png"); // Title Icon
         jaTapeList = new ArrayList<>();  // List of Tape Files
         tapeListTableModel = new JaTapeListTableModel(jaTapeList); // GUI list
+        history = new JaTapeHistory(jaTapeList);
 
-        // File Load/Save Objects
-        fileTap = new JatmFileTap();
-        fileJac = new JatmFileJac();
-        fileBin = new JatmFileBin();
-        fileHex = new JatmFileHex();
-        fileWav = new JatmFileWav();
-
-        // File Filters
-        fileFilterTap = new BasicFileFilter(fileTap.getExtension(), fileTap.getDescription());
-        fileFilterJac = new BasicFileFilter(fileJac.getExtension(), fileJac.getDescription());
-        fileFilterBin = new BasicFileFilter(fileBin.getExtension(), fileBin.getDescription());
-        fileFilterHex = new BasicFileFilter(fileHex.getExtension(), fileHex.getDescription());
-        fileFilterWav = new BasicFileFilter(fileWav.getExtension(), fileWav.getDescription());
+        // File Filters, one per registered file format
+        fileFilters = new LinkedHashMap<>();
+        for (JatmFile format : JatmFileFormats.getFormats()) {
+            fileFilters.put(new BasicFileFilter(format.getExtension(), format.getDescription()), format);
+        }
 
         // File Chooser
         jatmFileChooser = new JFileChooser();
-        jatmFileChooser.setFileFilter(fileFilterTap); // Default Choose
-        jatmFileChooser.addChoosableFileFilter(fileFilterJac);
-        jatmFileChooser.addChoosableFileFilter(fileFilterBin);
-        jatmFileChooser.addChoosableFileFilter(fileFilterHex);
-        jatmFileChooser.addChoosableFileFilter(fileFilterWav);
+        for (FileFilter filter : fileFilters.keySet()) {
+            jatmFileChooser.addChoosableFileFilter(filter);
+        }
+        jatmFileChooser.setFileFilter(fileFilters.keySet().iterator().next()); // Default Choose
 
         initComponents();
+        updateHistoryMenu();
+        initFilterBar();
 
         setTitle("JAtm - version " + version);
         setIconImage(jatmIcon.getImage());
@@ -129,6 +131,151 @@ public class JatmUI extends javax.swing.JFrame {
         }
     }
 
+    // Show next Undo/Redo steps in Edit menu
+    private void updateHistoryMenu() {
+        undoMenuItem.setText(("Undo " + history.getUndoName()).trim());
+        undoMenuItem.setEnabled(history.canUndo());
+        redoMenuItem.setText(("Redo " + history.getRedoName()).trim());
+        redoMenuItem.setEnabled(history.canRedo());
+    }
+
+    private void undoActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_undoActionPerformed
+        showHistoryRows(history.undo());
+    }//GEN-LAST:event_undoActionPerformed
+
+    private void redoActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_redoActionPerformed
+        showHistoryRows(history.redo());
+    }//GEN-LAST:event_redoActionPerformed
+
+    // Refresh table after Undo/Redo and select the restored rows
+    private void showHistoryRows(int[] rows) {
+        tapeListTable.clearSelection();
+        tapeListTableModel.fireTableDataChanged(); // refresh table draw
+        selectRows(rows);
+        setStatusBarLeft(jaTapeList.size());
+        updateHistoryMenu();
+    }
+
+    // Sortable table columns and filter fields on the tool bar
+    private void initFilterBar() {
+        tapeListSorter = tapeListTableModel.createRowSorter();
+        tapeListTable.setRowSorter(tapeListSorter);
+
+        filterNameField = new JTextField(10);
+        filterNameField.setToolTipText("Show names containing this text");
+        filterTypeBox = new JComboBox<>(new String[] {"All", "Dict", "Bytes"});
+        filterTypeBox.setToolTipText("Show file type");
+        filterFromField = new JTextField(5);
+        filterFromField.setToolTipText("Show addresses from");
+        filterToField = new JTextField(5);
+        filterToField.setToolTipText("Show addresses up to");
+
+        DocumentListener changed = new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                applyFilter();
+            }
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                applyFilter();
+            }
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                applyFilter();
+            }
+        };
+        filterNameField.getDocument().addDocumentListener(changed);
+        filterFromField.getDocument().addDocumentListener(changed);
+        filterToField.getDocument().addDocumentListener(changed);
+        filterTypeBox.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                applyFilter();
+            }
+        });
+
+        toolBar.add(new JToolBar.Separator());
+        toolBar.add(new JLabel("Find "));
+        toolBar.add(filterNameField);
+        toolBar.add(filterTypeBox);
+        toolBar.add(new JLabel(" Address "));
+        toolBar.add(filterFromField);
+        toolBar.add(new JLabel(" - "));
+        toolBar.add(filterToField);
+    }
+
+    // Show only the tapes matching the filter fields
+    private void applyFilter() {
+        String name = filterNameField.getText();
+        int type = filterTypeBox.getSelectedIndex();
+        int from = parseAddress(filterFromField.getText(), 0);
+        int to = parseAddress(filterToField.getText(), 0xFFFF);
+        if(name.isEmpty() && type == JaTapeListTableModel.ALL_FILES
+                && from == 0 && to == 0xFFFF) {
+            tapeListSorter.setRowFilter(null); // show all
+        } else {
+            tapeListSorter.setRowFilter(tapeListTableModel.createFilter(name, type, from, to));
+        }
+    }
+
+    // Decimal address from a filter field, or default if empty or invalid
+    private int parseAddress(String text, int defaultAddress) {
+        text = text.trim();
+        if(text.matches("\\d{1,5}")) {
+            return Integer.parseInt(text);
+        }
+        return defaultAddress;
+    }
+
+    // Selected tape list position, or -1 if no selection
+    private int getSelectedTape() {
+        int row = tapeListTable.getSelectedRow();
+        return (row < 0) ? row : tapeListTable.convertRowIndexToModel(row);
+    }
+
+    // Selected tape list positions in ascending order
+    private int[] getSelectedTapes() {
+        int[] rows = tapeListTable.getSelectedRows();
+        for(int i = 0; i < rows.length; i++) {
+            rows[i] = tapeListTable.convertRowIndexToModel(rows[i]);
+        }
+        Arrays.sort(rows);
+        return rows;
+    }
+
+    // Show tapes in list order, so moves are seen
+    private void clearSortOrder() {
+        tapeListSorter.setSortKeys(null);
+    }
+
+    // Select the table rows showing tape list positions,
+    // a whole run of consecutive rows at a time
+    private void selectRows(int[] tapes) {
+        int[] rows = new int[tapes.length];
+        int count = 0;
+        for (int tape : tapes) {
+            int row = tapeListTable.convertRowIndexToView(tape);
+            if(row >= 0) { // not filtered out
+                rows[count++] = row;
+            }
+        }
+        rows = Arrays.copyOf(rows, count);
+        Arrays.sort(rows);
+
+        ListSelectionModel selectionModel = tapeListTable.getSelectionModel();
+        selectionModel.setValueIsAdjusting(true);
+        selectionModel.clearSelection();
+        int i = 0;
+        while(i < rows.length) {
+            int first = rows[i];
+            while(i+1 < rows.length && rows[i+1] == rows[i]+1) {
+                i++;
+            }
+            selectionModel.addSelectionInterval(first, rows[i]);
+            i++;
+        }
+        selectionModel.setValueIsAdjusting(false);
+    }
+
     /**
      * This method is called from within the constructor to initialize the form.
      * WARNING: Do NOT modify this code. The content of this method is always
@@ -164,6 +311,9 @@ public class JatmUI extends javax.swing.JFrame {
         jSeparator2 = new javax.swing.JPopupMenu.Separator();
         exit = new javax.swing.JMenuItem();
         Edit = new javax.swing.JMenu();
+        undoMenuItem = new javax.swing.JMenuItem();
+        redoMenuItem = new javax.swing.JMenuItem();
+        jSeparator5 = new javax.swing.JPopupMenu.Separator();
         editName = new javax.swing.JMenuItem();
         editAttributes = new javax.swing.JMenuItem();
         jSeparator7 = new javax.swing.JPopupMenu.Separator();
@@ -429,6 +579,29 @@ public class JatmUI extends javax.swing.JFrame {
         Edit.setMnemonic('E');
         Edit.setText("Edit");
 
+        undoMenuItem.setAccelerator(javax.swing.KeyStroke.getKeyStroke(java.awt.event.KeyEvent.VK_Z, java.awt.event.InputEvent.CTRL_MASK));
+        undoMenuItem.setMnemonic('U');
+        undoMenuItem.setText("Undo");
+        undoMenuItem.setEnabled(false);
+        undoMenuItem.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                undoActionPerformed(evt);
+            }
+        });
+        Edit.add(undoMenuItem);
+
+        redoMenuItem.setAccelerator(javax.swing.KeyStroke.getKeyStroke(java.awt.event.KeyEvent.VK_Y, java.awt.event.InputEvent.CTRL_MASK));
+        redoMenuItem.setMnemonic('R');
+        redoMenuItem.setText("Redo");
+        redoMenuItem.setEnabled(false);
+        redoMenuItem.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                redoActionPerformed(evt);
+            }
+        });
+        Edit.add(redoMenuItem);
+        Edit.add(jSeparator5);
+
         editName.setAccelerator(javax.swing.KeyStroke.getKeyStroke(java.awt.event.KeyEvent.VK_F2, java.awt.event.InputEvent.CTRL_MASK));
         editName.setIcon(new javax.swing.ImageIcon(getClass().getResource("/JatmUI/resources/tag_blue_edit.png"))); // NOI18N
         editName.setMnemonic('N');
@@ -730,47 +903,146 @@ public class JatmUI extends javax.swing.JFrame {
     }
 
     private void loadFileActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_loadFileActionPerformed
-        int result;
-
         jatmFileChooser.setMultiSelectionEnabled(true); // Multiple files selection
 
         if(jatmFileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
-            this.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
             File[] files = jatmFileChooser.getSelectedFiles();
+            ProgressDialog progress = new ProgressDialog(this, "Loading");
+            progress.start(new TapeLoader(files, progress)); // load in background
+        }
+    }//GEN-LAST:event_loadFileActionPerformed
+
+    /**
+     * Loads tape files in background, several files at a time.
+     * Tapes are added to the list in the files order as each file is read,
+     * all of them as one Undo step
+     */
+    private class TapeLoader extends SwingWorker<Void, LoadedFile> {
+        private final File[] files;
+        private final ProgressDialog progress;
+        private final List<String> errors;
+        private int filesDone;
+
+        TapeLoader(File[] files, ProgressDialog progress) {
+            this.files = files;
+            this.progress = progress;
+            errors = new ArrayList<>();
+        }
+
+        @Override
+        protected Void doInBackground() {
+            List<Path> paths = new ArrayList<>(files.length);
             for (File file : files) {
-                String filename = file.getName();
-                String ext = filename.substring(filename.lastIndexOf(".")+1,filename.length());
+                paths.add(file.toPath());
+            }
+            new JatmFileLoader().load(paths, (index, file, tapes, result) -> {
+                publish(new LoadedFile(file.getFileName().toString(), tapes, result));
+            });
+            return null;
+        }
 
-                JatmFile jatmFile = fileBin; // BIN file load
-                if( ext.equalsIgnoreCase(fileTap.getExtension()) ) { // TAP file load
-                    jatmFile = fileTap;
-                }
-                if( ext.equalsIgnoreCase(fileJac.getExtension()) ) { // JAC file load
-                    jatmFile = fileJac;
-                }
-                if( ext.equalsIgnoreCase(fileHex.getExtension()) ) { // HEX file load
-                    jatmFile = fileHex;
+        @Override
+        protected void process(List<LoadedFile> chunks) {
+            for (LoadedFile file : chunks) {
+                filesDone++;
+                progress.setNote("Loaded " + file.name);
+                progress.setProgress(filesDone, files.length);
+                if(!file.tapes.isEmpty() && !isCancelled()) {
+                    if(!history.isChanging()) { // first tapes, or step ended by an edit
+                        history.beginChange("Load");
+                    }
+                    tapeListTableModel.append(file.tapes);
+                    setStatusBarLeft(jaTapeList.size());
                 }
-                if( ext.equalsIgnoreCase(fileWav.getExtension()) ) { // WAV file load
-                    jatmFile = fileWav;
+                if(file.result <= 0) { // an error occured
+                    errors.add(file.name);
                 }
+            }
+        }
 
-                result = jatmFile.load(file.toPath(), jaTapeList);
-                if(result <= 0) { // an error occured
-                    JOptionPane.showMessageDialog(this,
-                            "Error while loading file " + filename,
-                            "Load Error",
-                            JOptionPane.ERROR_MESSAGE);
-                    break;
-                } else {
+        @Override
+        protected void done() {
+            progress.finish();
+            history.endChange();
+            updateHistoryMenu();
+            if(!errors.isEmpty()) {
+                String message = (errors.size() == 1)
+                        ? "Error while loading file " + errors.get(0)
+                        : "Error while loading files:\n" + String.join("\n", errors);
+                JOptionPane.showMessageDialog(JatmUI.this,
+                        message,
+                        "Load Error",
+                        JOptionPane.ERROR_MESSAGE);
+            }
+        }
+    }
 
-                }
+    // A file loaded by TapeLoader
+    private static class LoadedFile {
+        final String name;
+        final List<JaTape> tapes;
+        final int result;
+
+        LoadedFile(String name, List<JaTape> tapes, int result) {
+            this.name = name;
+            this.tapes = tapes;
+            this.result = result;
+        }
+    }
+
+    /**
+     * Saves tapes in background. Tapes are copies sharing their
+     * contents, so the list can be edited while saving
+     */
+    private class TapeSaver extends SwingWorker<Integer, Void> {
+        private final JatmFile jatmFile;
+        private final Path path;
+        private final List<JaTape> tapes;
+        private final ProgressDialog progress;
+
+        TapeSaver(JatmFile jatmFile, Path path, int[] selection, ProgressDialog progress) {
+            this.jatmFile = jatmFile;
+            this.path = path;
+            this.progress = progress;
+            tapes = new ArrayList<>(selection.length);
+            for (int row : selection) {
+                tapes.add(new JaTape(jaTapeList.get(row)));
             }
-            tapeListTableModel.fireTableDataChanged(); // refresh table draw
-            this.setCursor(Cursor.getPredefinedCursor(Cursor.DEFAULT_CURSOR));
         }
-        setStatusBarLeft(jaTapeList.size());
-    }//GEN-LAST:event_loadFileActionPerformed
+
+        @Override
+        protected Integer doInBackground() throws IOException {
+            int[] all = new int[tapes.size()];
+            for(int i = 0; i < all.length; i++) {
+                all[i] = i;
+            }
+            int result = jatmFile.save(path, tapes, all);
+            if(isCancelled()) {
+                Files.deleteIfExists(path); // drop incomplete file
+            }
+            return result;
+        }
+
+        @Override
+        protected void done() {
+            progress.finish();
+            if(isCancelled()) {
+                return;
+            }
+            int result;
+            try {
+                result = get();
+            } catch (InterruptedException | ExecutionException ex) {
+                result = -1;
+            }
+            if(result <= 0) { // an error occured
+                JOptionPane.showMessageDialog(JatmUI.this,
+                        "Error while saving file " + path.getFileName(),
+                        "Save Error",
+                        JOptionPane.ERROR_MESSAGE);
+            }
+        }
+    }
 
     private void exitActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_exitActionPerformed
         if(!jaTapeList.isEmpty()) {
@@ -814,16 +1086,19 @@ public class JatmUI extends javax.swing.JFrame {
     }//GEN-LAST:event_aboutActionPerformed
 
     private void editNameActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_editNameActionPerformed
-        int row = tapeListTable.getSelectedRow();
+        int row = getSelectedTape();
         if(row >= 0) { // at least one selection
             JaTape tape = jaTapeList.get( row );
             String result = JOptionPane.showInputDialog(this,
                     "Rename [ " + tape.getFilename() + " ] to:",
                     tape.getFilename());
             if(result != null) {
+                history.beginEdit("Rename", new int[] { row });
                 tape.setFilename(result);
                 tape.fixCrc();
-                tapeListTable.updateUI();
+                history.endEdit();
+                updateHistoryMenu();
+                tapeListTableModel.fireTapesUpdated(new int[] { row });
             }
         } else { // Abort if no user selection
             msgNoSelectionError();
@@ -831,25 +1106,16 @@ public class JatmUI extends javax.swing.JFrame {
     }//GEN-LAST:event_editNameActionPerformed
 
     private void moveUpActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_moveUpActionPerformed
-        int[] selection = tapeListTable.getSelectedRows(); // Selection list
-        int row;
-        JaTape tape;
+        int[] selection = getSelectedTapes(); // Selection list
 
         if(selection.length > 0) { // Check if anything is selected
-            if(selection[0] > 0) { // Check first row selection
-                for (int i=0; i<selection.length; i++) { // move up all selection
-                    row = selection[i];   // get selection index
-                    selection[i] = row-1; // update selection index
-                    tape = jaTapeList.get( row ); // get selected object
-                    jaTapeList.set(row, jaTapeList.get(row-1) ); // move next object up
-                    jaTapeList.set(row-1, tape ); // place object in new position
-                }
-                tapeListTable.clearSelection();
-                tapeListTableModel.fireTableDataChanged(); // refresh table draw
-                for(int i=0; i<selection.length; i++) { // Update selection in new position
-                    row = selection[i];
-                    tapeListTable.addRowSelectionInterval(row, row);
-                }
+            clearSortOrder();
+            history.beginChange("Move Up");
+            int[] moved = tapeListTableModel.moveUp(selection);
+            history.endChange();
+            if(moved != selection) { // Selection moved
+                updateHistoryMenu();
+                selectRows(moved); // Update selection in new position
             }
         } else {
             msgNoSelectionError(); // No files selected Error
@@ -864,7 +1130,10 @@ public class JatmUI extends javax.swing.JFrame {
                     "Confirm Clear",
                     JOptionPane.OK_CANCEL_OPTION);
             if(action == JOptionPane.OK_OPTION) {
+                history.beginChange("Clear List");
                 jaTapeList.clear();
+                history.endChange();
+                updateHistoryMenu();
                 tapeListTableModel.fireTableDataChanged(); // refresh table draw
                 setStatusBarLeft(jaTapeList.size());
             }
@@ -872,49 +1141,46 @@ public class JatmUI extends javax.swing.JFrame {
     }//GEN-LAST:event_clearListActionPerformed
 
     private void editHeaderActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_editHeaderActionPerformed
-        int row = tapeListTable.getSelectedRow();
+        int row = getSelectedTape();
         if(row >= 0) { // At least one selection
             EditFileAttributesDialog dialog;
             dialog = new EditFileAttributesDialog(this,true,jaTapeList.get(row));
+            history.beginEdit("Edit Attributes", new int[] { row });
             dialog.setVisible(true);
-            tapeListTable.updateUI();
+            history.endEdit();
+            updateHistoryMenu();
+            tapeListTableModel.fireTapesUpdated(new int[] { row });
         } else { // Abort if no selection
             msgNoSelectionError();
         }
     }//GEN-LAST:event_editHeaderActionPerformed
 
     private void fixCrcActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_fixCrcActionPerformed
-        int[] selection = tapeListTable.getSelectedRows();
+        int[] selection = getSelectedTapes();
         if(selection.length > 0) { // at least one selection
+            history.beginEdit("Fix CRC", selection);
             for(int i = 0; i < selection.length; i++) { // Fix all selected files
                 jaTapeList.get(selection[i]).fixCrc();
             }
-            tapeListTable.updateUI();
+            history.endEdit();
+            updateHistoryMenu();
+            tapeListTableModel.fireTapesUpdated(selection);
         } else { // Abort if no selection
             msgNoSelectionError();
         }
     }//GEN-LAST:event_fixCrcActionPerformed
 
     private void moveDownActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_moveDownActionPerformed
-        int[] selection = tapeListTable.getSelectedRows(); // Selection list
-        int row;
-        JaTape tape;
+        int[] selection = getSelectedTapes(); // Selection list
 
         if(selection.length > 0) { // Check if anything is selected
-            if(selection[selection.length-1] < jaTapeList.size()-1) { // Check last row selection
-                for (int i=selection.length-1; i >= 0; i--) { // MOve All selection down
-                    row = selection[i];     // get current selection index
-                    selection[i] = row + 1; // update selection index
-                    tape = jaTapeList.get( row ); // get selected object
-                    jaTapeList.set(row, jaTapeList.get(row+1) ); // move up object below
-                    jaTapeList.set(row+1, tape ); // place object in new position
-                }
-                tapeListTable.clearSelection();
-                tapeListTableModel.fireTableDataChanged(); // refresh table draw
-                for(int i=0; i<selection.length; i++) { // Update selection in new position
-                    row = selection[i];
-                    tapeListTable.addRowSelectionInterval(row, row);
-                }
+            clearSortOrder();
+            history.beginChange("Move Down");
+            int[] moved = tapeListTableModel.moveDown(selection);
+            history.endChange();
+            if(moved != selection) { // Selection moved
+                updateHistoryMenu();
+                selectRows(moved); // Update selection in new position
             }
         } else {
             msgNoSelectionError(); // No files selected Error
@@ -922,30 +1188,16 @@ public class JatmUI extends javax.swing.JFrame {
     }//GEN-LAST:event_moveDownActionPerformed
 
     private void moveTopActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_moveTopActionPerformed
-        int[] selection = tapeListTable.getSelectedRows(); // Selection list
-        int row;
-        JaTape tape;
+        int[] selection = getSelectedTapes(); // Selection list
 
         if(selection.length > 0) { // Check if anything is selected
-            int firstSelection = selection[0];
-            if(firstSelection > 0) { // Check first row selection
-                // Move Up in steps
-                for(int line=0; line<firstSelection; line++) {
-                    // Move up one line at a time
-                    for (int i=0; i<selection.length; i++) {
-                        row = selection[i];
-                        selection[i] = row-1; // update selection index
-                        tape = jaTapeList.get(row); // get selected object
-                        jaTapeList.set(row, jaTapeList.get(row-1) ); // move down upper object
-                        jaTapeList.set(row-1, tape); // place object in new position
-                    }
-                }
-                tapeListTable.clearSelection();
-                tapeListTableModel.fireTableDataChanged(); // refresh table draw
-                for(int i=0; i<selection.length; i++) { // Update selection in new position
-                    row = selection[i];
-                    tapeListTable.addRowSelectionInterval(row, row);
-                }
+            clearSortOrder();
+            history.beginChange("Move to Top");
+            int[] moved = tapeListTableModel.moveTop(selection);
+            history.endChange();
+            if(moved != selection) { // Selection moved
+                updateHistoryMenu();
+                selectRows(moved); // Update selection in new position
             }
         } else {
             msgNoSelectionError(); // No files selected Error
@@ -953,30 +1205,16 @@ public class JatmUI extends javax.swing.JFrame {
     }//GEN-LAST:event_moveTopActionPerformed
 
     private void moveBottomActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_moveBottomActionPerformed
-        int[] selection = tapeListTable.getSelectedRows(); // Selection list
-        int row;
-        JaTape tape;
+        int[] selection = getSelectedTapes(); // Selection list
 
         if(selection.length > 0) { // Check if anything is selected
-            int lastSelection = selection[selection.length-1];
-            if(lastSelection < jaTapeList.size()-1) { // Check last row selection
-                // Move Down in steps
-                for(int line = lastSelection; line<jaTapeList.size()-1; line++) {
-                    // Move down one line at a time
-                    for (int i=selection.length-1; i >= 0; i--) {
-                        row = selection[i];
-                        selection[i] = row + 1;
-                        tape = jaTapeList.get(row); // get selected object
-                        jaTapeList.set(row, jaTapeList.get(row+1) ); // move next object up
-                        jaTapeList.set(row+1, tape); // place object in new position
-                    }
-                }
-                tapeListTable.clearSelection();
-                tapeListTableModel.fireTableDataChanged(); // refresh table draw
-                for(int i=0; i<selection.length; i++) { // Update selection in new position
-                    row = selection[i];
-                    tapeListTable.addRowSelectionInterval(row, row);
-                }
+            clearSortOrder();
+            history.beginChange("Move to Bottom");
+            int[] moved = tapeListTableModel.moveBottom(selection);
+            history.endChange();
+            if(moved != selection) { // Selection moved
+                updateHistoryMenu();
+                selectRows(moved); // Update selection in new position
             }
         } else {
             msgNoSelectionError(); // No files selected Error
@@ -984,14 +1222,14 @@ public class JatmUI extends javax.swing.JFrame {
     }//GEN-LAST:event_moveBottomActionPerformed
 
     private void removeItemActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_removeItemActionPerformed
-        int[] selection = tapeListTable.getSelectedRows(); // Selection list
+        int[] selection = getSelectedTapes(); // Selection list
 
         if(selection.length > 0) { // Check if anything is selected
-            for (int row=selection.length-1; row>=0; row--) {
-                jaTapeList.remove(selection[row]); // delete selected rows
-            }
+            history.beginChange("Remove");
             tapeListTable.clearSelection();
-            tapeListTableModel.fireTableDataChanged(); // refresh table draw
+            tapeListTableModel.remove(selection); // delete selected rows
+            history.endChange();
+            updateHistoryMenu();
             setStatusBarLeft(jaTapeList.size()); // Update Status Bar
         } else {
             msgNoSelectionError(); // No files selected Error
@@ -999,7 +1237,7 @@ public class JatmUI extends javax.swing.JFrame {
     }//GEN-LAST:event_removeItemActionPerformed
 
     private void saveFileActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_saveFileActionPerformed
-        int[] selection = tapeListTable.getSelectedRows();
+        int[] selection = getSelectedTapes();
         if(selection.length <= 0) { // No files selected to save
             msgNoSelectionError();
             return;
@@ -1020,21 +1258,12 @@ public class JatmUI extends javax.swing.JFrame {
             // There is a 3 char extension
             ext = textPath.substring(textPath.lastIndexOf(".")+1);
         } else {
-            // No tape extension: Append one
-            ext = fileTap.getExtension(); // Default extension
-            FileFilter filter = jatmFileChooser.getFileFilter();
-            if(filter == fileFilterJac) {
-                ext = fileJac.getExtension();
-            }
-            if(filter == fileFilterBin) {
-                ext = fileBin.getExtension();
-            }
-            if(filter == fileFilterHex) {
-                ext = fileHex.getExtension();
-            }
-            if(filter == fileFilterWav) {
-                ext = fileWav.getExtension();
+            // No tape extension: Append the chosen filter one
+            JatmFile chosen = fileFilters.get(jatmFileChooser.getFileFilter());
+            if(chosen == null) { // All files filter: default format
+                chosen = JatmFileFormats.getFormats().get(0);
             }
+            ext = chosen.getExtension();
             textPath += "." + ext; // Append missing extension
         }
 
@@ -1049,33 +1278,14 @@ public class JatmUI extends javax.swing.JFrame {
             }
         }
 
-        JatmFile jatmFile = null;
-        Boolean isMultiTapeFile = false; // File Format accepts more than one tape
+        JatmFile jatmFile = JatmFileFormats.forExtension(ext);
 
-        if( ext.equalsIgnoreCase(fileTap.getExtension()) ) { // TAP file save
-            jatmFile = fileTap;
-            isMultiTapeFile = true;
-        }
-        if( ext.equalsIgnoreCase(fileBin.getExtension()) ) { // BIN file save
-            jatmFile = fileBin;
-        }
-        if( ext.equalsIgnoreCase(fileJac.getExtension()) ) { // JAC file save
-            jatmFile = fileJac;
-        }
-        if( ext.equalsIgnoreCase(fileHex.getExtension()) ) { // HEX file save
-            jatmFile = fileHex;
-        }
-        if( ext.equalsIgnoreCase(fileWav.getExtension()) ) { // WAV file save
-            jatmFile = fileWav;
-            isMultiTapeFile = true;
-        }
-
-        if(jatmFile != null) { // Valid File Extension
-            if(isMultiTapeFile || selection.length==1) {
+        if(jatmFile != null && !jatmFile.isLoadOnly()) { // Valid File Extension
+            if(jatmFile.isMultiTape() || selection.length==1) {
                 // Save tape
-                this.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
-                jatmFile.save(path, jaTapeList, selection);
-                this.setCursor(Cursor.getPredefinedCursor(Cursor.DEFAULT_CURSOR));
+                ProgressDialog progress = new ProgressDialog(this, "Saving");
+                progress.setNote("Saving " + path.getFileName());
+                progress.start(new TapeSaver(jatmFile, path, selection, progress));
             } else { // Multiple Tape files not allowed with selected tape format
                 JOptionPane.showMessageDialog(this,
                         "File Format: ."+ext
@@ -1085,7 +1295,7 @@ public class JatmUI extends javax.swing.JFrame {
             }
         } else { // Invalid File Extension
             JOptionPane.showMessageDialog(this,
-                    "Unknow file format: ."+ext,
+                    ((jatmFile != null) ? "Can not save file format: ." : "Unknow file format: .")+ext,
                     "Save Error: Unknow Format",
                     JOptionPane.ERROR_MESSAGE);
         }
@@ -1093,11 +1303,11 @@ public class JatmUI extends javax.swing.JFrame {
     }//GEN-LAST:event_saveFileActionPerformed
 
     private void viewCharactersActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_viewCharactersActionPerformed
-        int[] selection = tapeListTable.getSelectedRows();
+        int[] selection = getSelectedTapes();
         if(selection.length > 0) {
             JaTape tape = jaTapeList.get( selection[0] );
             ViewCharacterSetDialog dialog;
-            dialog = new ViewCharacterSetDialog(this, true, tape.getData(), 0, userCharSet, tape.getFilename());
+            dialog = new ViewCharacterSetDialog(this, true, tape.getDataView(), 0, userCharSet, tape.getFilename());
             dialog.setVisible(true);
         } else { // No files selected to save
             msgNoSelectionError();
@@ -1106,11 +1316,11 @@ public class JatmUI extends javax.swing.JFrame {
     }//GEN-LAST:event_viewCharactersActionPerformed
 
     private void viewScreenActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_viewScreenActionPerformed
-        int[] selection = tapeListTable.getSelectedRows();
+        int[] selection = getSelectedTapes();
         if(selection.length > 0) {
             JaTape tape = jaTapeList.get( selection[0] );
             ViewScreenDialog dialog;
-            dialog = new ViewScreenDialog(this,true,tape.getData(),userCharSet,tape.getFilename());
+            dialog = new ViewScreenDialog(this,true,tape.getDataView(),userCharSet,tape.getFilename());
             dialog.setVisible(true);
         } else { // No files selected to save
             msgNoSelectionError();
@@ -1137,7 +1347,7 @@ public class JatmUI extends javax.swing.JFrame {
     }//GEN-LAST:event_invertSelectionMenuItemActionPerformed
 
     private void viewMapActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_viewMapActionPerformed
-        int[] selection = tapeListTable.getSelectedRows();    // Get User Selection
+        int[] selection = getSelectedTapes();    // Get User Selection
         if(selection.length > 0) {
             ViewMapDialog dialog;
             dialog = new ViewMapDialog(this, true, jaTapeList.get( selection[0] ));
@@ -1148,7 +1358,7 @@ public class JatmUI extends javax.swing.JFrame {
     }//GEN-LAST:event_viewMapActionPerformed
 
     private void viewInspectActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_viewInspectActionPerformed
-        int[] selection = tapeListTable.getSelectedRows();    // Get User Selection
+        int[] selection = getSelectedTapes();    // Get User Selection
         if(selection.length > 0) {
             ViewFileContentsDialog dialog;
             dialog = new ViewFileContentsDialog(this, true, jaTapeList.get( selection[0] ));
@@ -1185,14 +1395,17 @@ public class JatmUI extends javax.swing.JFrame {
     }//GEN-LAST:event_wavSaveSetupActionPerformed
 
     private void duplicateActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_duplicateActionPerformed
-        int[] selection = tapeListTable.getSelectedRows();    // Get User Selection
+        int[] selection = getSelectedTapes();    // Get User Selection
         if(selection.length > 0) {
             JaTape tape;
+            history.beginChange("Duplicate");
             for (int row = 0; row < selection.length; row++) {
 
                 tape = new JaTape(jaTapeList.get( selection[row] )); // create a copy
                 jaTapeList.add(tape); // append to list end
             }
+            history.endChange();
+            updateHistoryMenu();
             tapeListTable.clearSelection();
             tapeListTableModel.fireTableDataChanged(); // refresh table draw
             setStatusBarLeft(jaTapeList.size()); // Update Status Bar
@@ -1202,7 +1415,7 @@ public class JatmUI extends javax.swing.JFrame {
     }//GEN-LAST:event_duplicateActionPerformed
 
     private void compareActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_compareActionPerformed
-        int[] selection = tapeListTable.getSelectedRows();    // Get User Selection
+        int[] selection = getSelectedTapes();    // Get User Selection
         if(selection.length == 2 ) {
             CompareDialog dialog;
             dialog = new CompareDialog(this,true);
@@ -1256,6 +1469,7 @@ public class JatmUI extends javax.swing.JFrame {
     private javax.swing.JPopupMenu.Separator jSeparator2;
     private javax.swing.JPopupMenu.Separator jSeparator3;
     private javax.swing.JToolBar.Separator jSeparator4;
+    private javax.swing.JPopupMenu.Separator jSeparator5;
     private javax.swing.JToolBar.Separator jSeparator6;
     private javax.swing.JPopupMenu.Separator jSeparator7;
     private javax.swing.JPopupMenu.Separator jSeparator8;
@@ -1268,6 +1482,7 @@ public class JatmUI extends javax.swing.JFrame {
     private javax.swing.JButton newButton;
     private javax.swing.JMenuItem newList;
     private javax.swing.JMenuItem openFile;
+    private javax.swing.JMenuItem redoMenuItem;
     private javax.swing.JButton removeButton;
     private javax.swing.JMenuItem removeItem;
     private javax.swing.JButton renameButton;
@@ -1282,6 +1497,7 @@ public class JatmUI extends javax.swing.JFrame {
     private javax.swing.JTable tapeListTable;
     private javax.swing.JToolBar toolBar;
     private javax.swing.JMenu toolsMenu;
+    private javax.swing.JMenuItem undoMenuItem;
     private javax.swing.JMenuItem viewCharacters;
     private javax.swing.JMenuItem viewInspect;
     private javax.swing.JMenuItem viewMap;
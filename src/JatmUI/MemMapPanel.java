@@ -73,9 +73,8 @@ public class MemMapPanel extends javax.swing.JPanel {
             g.setColor(Color.MAGENTA);  // Byt color
         }
         // Calculate drawing coordinates
-        byte[] data = tape.getData();
         int startAddress = tape.getParameter(JaTape.ADDRESS);
-        int endAddress = startAddress + data.length - 1;
+        int endAddress = startAddress + tape.getDataLength() - 1;
         int startY = (startAddress >> 13) & 0x07;
         int endY   = (endAddress   >> 13) & 0x07;
         int startX = (startAddress >> 5)  & 0xFF;
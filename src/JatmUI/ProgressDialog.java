@@ -0,0 +1,121 @@
+/*
+ * This file is part of JAtm - The Jupiter Ace tape manager.
+ *
+ * JAtm is a tool to manage Jupiter Ace tape files in several formats.
+ * Copyright (C) 2015  Ricardo Fernandes Lopes
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package JatmUI;
+
+import java.awt.BorderLayout;
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+
+/**
+ * Progress of a background load or save, with a Cancel button.
+ * Shown only if the task takes more than half a second
+ */
+public class ProgressDialog extends javax.swing.JDialog {
+    private static final int POPUP_DELAY = 500; // ms before showing up
+
+    private final JLabel noteLabel;
+    private final JProgressBar progressBar;
+    private final Timer popupTimer;
+    private SwingWorker<?, ?> task;
+
+    /**
+     * Creates a progress dialog, not visible
+     * @param parent owner frame
+     * @param title dialog title
+     */
+    public ProgressDialog(java.awt.Frame parent, String title) {
+        super(parent, title, false);
+
+        noteLabel = new JLabel(" ");
+        progressBar = new JProgressBar();
+        progressBar.setIndeterminate(true);
+        JButton cancelButton = new JButton("Cancel");
+        cancelButton.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                cancel();
+            }
+        });
+
+        JPanel panel = new JPanel(new BorderLayout(8, 8));
+        panel.setBorder(BorderFactory.createEmptyBorder(12, 12, 12, 12));
+        panel.add(noteLabel, BorderLayout.NORTH);
+        panel.add(progressBar, BorderLayout.CENTER);
+        JPanel buttons = new JPanel();
+        buttons.add(cancelButton);
+        panel.add(buttons, BorderLayout.SOUTH);
+        setContentPane(panel);
+
+        setDefaultCloseOperation(javax.swing.WindowConstants.DO_NOTHING_ON_CLOSE);
+        addWindowListener(new java.awt.event.WindowAdapter() {
+            @Override
+            public void windowClosing(java.awt.event.WindowEvent evt) {
+                cancel();
+            }
+        });
+        setSize(360, 130);
+        setLocationRelativeTo(parent);
+
+        popupTimer = new Timer(POPUP_DELAY, new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                setVisible(true);
+            }
+        });
+        popupTimer.setRepeats(false);
+    }
+
+    /**
+     * Start a background task, showing its progress if it takes long
+     * @param worker task to run. Cancel interrupts it
+     */
+    public void start(SwingWorker<?, ?> worker) {
+        task = worker;
+        popupTimer.start();
+        worker.execute();
+    }
+
+    /**
+     * Close the dialog, called when the task is done
+     */
+    public void finish() {
+        popupTimer.stop();
+        dispose();
+    }
+
+    public void setNote(String note) {
+        noteLabel.setText(note);
+    }
+
+    public void setProgress(int value, int max) {
+        progressBar.setIndeterminate(false);
+        progressBar.setMaximum(max);
+        progressBar.setValue(value);
+    }
+
+    private void cancel() {
+        if(task != null) {
+            task.cancel(true); // interrupt the task
+        }
+    }
+}
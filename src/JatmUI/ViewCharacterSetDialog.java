@@ -21,6 +21,7 @@ package JatmUI;
 
 import java.awt.Color;
 import java.awt.Graphics;
+import java.nio.ByteBuffer;
 
 /**
  *
@@ -35,7 +36,7 @@ public class ViewCharacterSetDialog extends javax.swing.JDialog {
     private static final int PANEL_SIZE = 16*8 + 15*GRID_GAP + 2*PANEL_MARGIN;
     
     int offset, nChars;
-    byte[] currentCharBytes;
+    ByteBuffer currentCharBytes;
     CharacterSet currentCharSet; // Selected file Char Set
     CharacterSet userCharSet; // Current User Defined Character Set
 
@@ -49,7 +50,7 @@ public class ViewCharacterSetDialog extends javax.swing.JDialog {
      * @param filename
      */
     public ViewCharacterSetDialog(java.awt.Frame parent, boolean modal,
-            byte[] data, int start, CharacterSet userCS, String filename) {
+            ByteBuffer data, int start, CharacterSet userCS, String filename) {
         super(parent, modal);
         initComponents();
         
@@ -57,9 +58,8 @@ public class ViewCharacterSetDialog extends javax.swing.JDialog {
 
         charPanel.setSize(PANEL_SIZE, PANEL_SIZE);
         offset = start; // first character index
-        nChars = data.length >> 3; // number of characters in data
-        currentCharBytes = new byte[1024];
-        currentCharBytes = data.clone();
+        nChars = data.limit() >> 3; // number of characters in data
+        currentCharBytes = data;
         currentCharSet = new CharacterSet();
         currentCharSet.load(data, start); // Set current Character Set
         userCharSet = userCS; // User Char Set        
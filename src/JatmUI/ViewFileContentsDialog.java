@@ -25,6 +25,7 @@ import java.awt.Font;
 import java.awt.FontFormatException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -32,7 +33,7 @@ public class ViewFileContentsDialog extends javax.swing.JDialog {
 
     private final JaTape tape;
     private final JaVocabulary forthVocabulary;
-    private final byte[] data;
+    private final ByteBuffer data;
 
     // Special Jupiter Ace like Character Fonts
     private static Font baseAceFont;
@@ -61,7 +62,7 @@ public class ViewFileContentsDialog extends javax.swing.JDialog {
         super(parent, modal);
 
         tape = t;
-        data = t.getData();
+        data = t.getDataView();
         forthVocabulary = new JaVocabulary(t); // Tape File Decompiler
         aceFontSmall  = baseAceFont.deriveFont(Font.PLAIN,8);  // Small Fonts
         aceFontMedium = baseAceFont.deriveFont(Font.PLAIN,12); // Medium Fonts
@@ -159,14 +160,14 @@ public class ViewFileContentsDialog extends javax.swing.JDialog {
         hexDumpTextArea.append(invert("      ASCII     ")+"\n");
         // 16 bytes per line
         int adr = tape.getParameter(JaTape.ADDRESS);
-        for(int i = 0; i < data.length; i=i+16) {
+        for(int i = 0; i < data.limit(); i=i+16) {
             sbHex.setLength(0); // Clear Hex values string buffer
             sbAsc.setLength(0); // Clear Ascii chars string buffer
             sbHex.append(String.format("%04X:", adr)); // Address
             sbAsc.append("  "); // Ascii block separation
             for(int n = i; n < i+16; n++) {
-                if( n < data.length) {
-                    int c = data[n] & 0xFF; // get unsigned char value
+                if( n < data.limit()) {
+                    int c = data.get(n) & 0xFF; // get unsigned char value
                     sbHex.append(String.format(" %02X", c));
                     // filter lower ASCII characters like CR, TAB, NULL, etc..
                     if(c < 16) {
@@ -20,6 +20,7 @@
 package JatmUI;
 
 import java.awt.Graphics;
+import java.nio.ByteBuffer;
 
 public class ViewScreenDialog extends javax.swing.JDialog {
 
@@ -45,7 +46,7 @@ public class ViewScreenDialog extends javax.swing.JDialog {
      * @param charSet
      * @param filename
      */
-    public ViewScreenDialog(java.awt.Frame parent, boolean modal, byte[] data, CharacterSet charSet, String filename) {
+    public ViewScreenDialog(java.awt.Frame parent, boolean modal, ByteBuffer data, CharacterSet charSet, String filename) {
         super(parent, modal);
         initComponents();        
         this.setTitle("Screen Data [ " + filename + " ]");
@@ -53,8 +54,8 @@ public class ViewScreenDialog extends javax.swing.JDialog {
         // fill screen with file data
         screen = new byte[1024];
         for(int i = 0; i < 1024; i++) {
-            if(data.length > i) {
-                screen[i] = data[i];
+            if(data.limit() > i) {
+                screen[i] = data.get(i);
             } else {
                 screen[i] = 0;
             }